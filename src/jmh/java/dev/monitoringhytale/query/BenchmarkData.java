@@ -0,0 +1,142 @@
+package dev.monitoringhytale.query;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+import dev.monitoringhytale.query.config.NetworkConfig;
+import dev.monitoringhytale.query.network.NetworkModule;
+import dev.monitoringhytale.query.network.model.NetworkSnapshot;
+import dev.monitoringhytale.query.network.model.PlayerInfo;
+import dev.monitoringhytale.query.network.model.ServerState;
+import dev.monitoringhytale.query.protocol.ServerDataProvider;
+import dev.monitoringhytale.query.protocol.ServerInfoSnapshot;
+import dev.monitoringhytale.query.protocol.v1.V1Protocol;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Fixed server info, players and request packets shared by the benchmarks, so they run without
+ * a game server.
+ */
+public final class BenchmarkData {
+
+    public static final int SERVER_COUNT = 20;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Publish fixed server info with a host and a handful of plugins.
+     */
+    public static void publishServerInfo(int playerCount) {
+        List<ServerInfoSnapshot.Plugin> plugins = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            plugins.add(new ServerInfoSnapshot.Plugin("Example:Plugin" + i, "1." + i + ".0", true));
+        }
+        ServerDataProvider.publish(new ServerInfoSnapshot("Benchmark Network", "Welcome to the benchmark!",
+                playerCount, 100_000, "play.example.org", 5520, "2026.1.0", 1, "0123456789abcdef", plugins));
+    }
+
+    @Nonnull
+    public static List<PlayerInfo> players(int count) {
+        List<PlayerInfo> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int server = i % SERVER_COUNT;
+            players.add(PlayerInfo.of(new UUID(0x1234L, i), "Player_" + i, "server-" + server, "Server " + server));
+        }
+        return players;
+    }
+
+    @Nonnull
+    public static NetworkSnapshot networkSnapshot(@Nonnull List<PlayerInfo> players) {
+        List<ServerState> servers = new ArrayList<>();
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            servers.add(ServerState.builder("server-" + i).serverName("Server " + i).build());
+        }
+        return NetworkSnapshot.of(servers, players);
+    }
+
+    @Nonnull
+    public static PlayerListArena arena(@Nonnull List<PlayerInfo> players) {
+        PlayerListArena arena = new PlayerListArena();
+        arena.reset(players, PlayerInfo::uuid, PlayerInfo::username);
+        return arena;
+    }
+
+    /**
+     * A network module that is always enabled and serves a fixed snapshot and its player list,
+     * without a store.
+     */
+    @Nonnull
+    public static NetworkModule networkModule(@Nonnull NetworkSnapshot snapshot, @Nonnull PlayerListArena playerList) {
+        return new NetworkModule(HytaleLogger.forEnclosingClass(), new NetworkConfig(), "server-0", "Server 0") {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public boolean shouldAggregate() {
+                return true;
+            }
+
+            @Nonnull
+            @Override
+            public NetworkSnapshot getNetworkSnapshotSync() {
+                return snapshot;
+            }
+
+            @Nonnull
+            @Override
+            public PlayerListArena getPlayerList() {
+                return playerList;
+            }
+        };
+    }
+
+    @Nonnull
+    public static ByteBuf v2ChallengeRequest() {
+        ByteBuf buf = Unpooled.buffer(V2Protocol.MIN_CHALLENGE_REQUEST_SIZE);
+        buf.writeBytes(V2Protocol.REQUEST_MAGIC);
+        buf.writeByte(V2Protocol.QueryType.CHALLENGE.code());
+        return buf;
+    }
+
+    /**
+     * A V2 query with a valid challenge token for {@code address} and optionally an auth token.
+     */
+    @Nonnull
+    public static ByteBuf v2Query(@Nonnull V2Protocol.QueryType type, @Nonnull ChallengeTokenGenerator generator,
+                                  @Nonnull InetAddress address, int offset, @Nullable String authToken) {
+        ByteBuf buf = Unpooled.buffer(128);
+        buf.writeBytes(V2Protocol.REQUEST_MAGIC);
+        buf.writeByte(type.code());
+        generator.writeToken(buf, address);
+        buf.writeIntLE(0x01020304);
+        buf.writeShortLE(authToken != null ? V2Protocol.FLAG_REQUEST_HAS_AUTH_TOKEN : 0);
+        buf.writeIntLE(offset);
+        if (authToken != null) {
+            byte[] token = authToken.getBytes(StandardCharsets.UTF_8);
+            buf.writeShortLE(token.length);
+            buf.writeBytes(token);
+        }
+        return buf;
+    }
+
+    @Nonnull
+    public static ByteBuf v1Request(byte type) {
+        ByteBuf buf = Unpooled.buffer(V1Protocol.MIN_REQUEST_SIZE);
+        buf.writeBytes(V1Protocol.REQUEST_MAGIC);
+        buf.writeByte(type);
+        return buf;
+    }
+}
@@ -0,0 +1,169 @@
+package dev.monitoringhytale.query;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+import dev.monitoringhytale.query.config.ListenerConfig;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bursty polling against the dedicated listener: each client fires {@link #BURST} CHALLENGE
+ * requests back to back and then collects the replies.
+ *
+ * <p>Compare {@code maxPendingBytes=0} (flush every response) with coalesced flushing; the
+ * {@code flushes} counter is the number of flushes reaching the socket, which is roughly the
+ * number of send syscalls (one sendmmsg per flush on epoll).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBurstBenchmark {
+
+    static final int BURST = 32;
+
+    @Param({"0", "65536"})
+    public int maxPendingBytes;
+
+    private final LongAdder flushes = new LongAdder();
+    private QueryListener listener;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        try (DatagramSocket probe = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+
+        ListenerConfig config = new ListenerConfig();
+        config.setEnabled(true);
+        config.setHost("127.0.0.1");
+        config.setPort(port);
+        config.setSockets(1);
+
+        QueryHandler handler = new QueryHandler(
+                HytaleLogger.forEnclosingClass(),
+                new ChallengeTokenGenerator(ChallengeTokenGenerator.generateSecret()),
+                null,
+                null,
+                new PlayerListArena(),
+                null,
+                null,
+                null,
+                false,
+                maxPendingBytes);
+        ChannelHandler flushCounter = new FlushCounter(flushes);
+
+        listener = new QueryListener(HytaleLogger.forEnclosingClass(), config);
+        listener.start(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(flushCounter, handler);
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        listener.stop();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Client {
+
+        DatagramSocket socket;
+        DatagramPacket request;
+        DatagramPacket response;
+        QueryBurstBenchmark benchmark;
+        long flushBaseline;
+        public long lost;
+        public long flushes;
+
+        @Setup(Level.Iteration)
+        public void setup(QueryBurstBenchmark benchmark) throws IOException {
+            this.benchmark = benchmark;
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            socket.setSoTimeout(100);
+            socket.setReceiveBufferSize(1 << 20);
+
+            byte[] bytes = new byte[V2Protocol.MIN_CHALLENGE_REQUEST_SIZE];
+            System.arraycopy(V2Protocol.REQUEST_MAGIC, 0, bytes, 0, V2Protocol.REQUEST_MAGIC.length);
+            bytes[V2Protocol.OFFSET_TYPE] = V2Protocol.QueryType.CHALLENGE.code();
+            request = new DatagramPacket(bytes, bytes.length, InetAddress.getLoopbackAddress(), benchmark.port);
+            response = new DatagramPacket(new byte[1500], 1500);
+            flushBaseline = benchmark.flushes.sum();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            flushes = benchmark.flushes.sum() - flushBaseline;
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int challengeBurst(Client client) throws IOException {
+        for (int i = 0; i < BURST; i++) {
+            client.socket.send(client.request);
+        }
+
+        int received = 0;
+        try {
+            while (received < BURST) {
+                client.socket.receive(client.response);
+                received++;
+            }
+        } catch (SocketTimeoutException e) {
+            client.lost += BURST - received;
+        }
+        return received;
+    }
+
+    @ChannelHandler.Sharable
+    static final class FlushCounter extends ChannelOutboundHandlerAdapter {
+
+        private final LongAdder flushes;
+
+        FlushCounter(LongAdder flushes) {
+            this.flushes = flushes;
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            flushes.increment();
+            ctx.flush();
+        }
+    }
+}
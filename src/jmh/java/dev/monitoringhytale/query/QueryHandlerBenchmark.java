@@ -0,0 +1,156 @@
+package dev.monitoringhytale.query;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+import dev.monitoringhytale.query.auth.TokenValidator;
+import dev.monitoringhytale.query.config.AuthConfig;
+import dev.monitoringhytale.query.config.Permissions;
+import dev.monitoringhytale.query.network.model.PlayerInfo;
+import dev.monitoringhytale.query.protocol.v1.V1Protocol;
+import dev.monitoringhytale.query.protocol.v2.PlayerChangeLog;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One request through {@link QueryHandler#channelRead} on an {@link EmbeddedChannel}, from the
+ * inbound datagram to the response written to the channel, with the production defaults for
+ * write coalescing and response caching.
+ *
+ * <p>{@code mode=network} serves a fixed {@code NetworkSnapshot} of {@code players} players
+ * across {@value BenchmarkData#SERVER_COUNT} servers; {@code mode=local} serves them from the
+ * local player list. PLAYERS requests carry an auth token, as players are not public by default.
+ * {@code playersDeltaQuiet} polls with an up-to-date cursor, as a monitor of an idle server does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryHandlerBenchmark {
+
+    private static final String AUTH_TOKEN = "admin-token-0123456789abcdef";
+
+    @Param({"local", "network"})
+    public String mode;
+
+    @Param({"10", "1000", "50000"})
+    public int players;
+
+    private final InetSocketAddress server = new InetSocketAddress("127.0.0.1", 5520);
+    private final InetSocketAddress client = new InetSocketAddress("10.0.0.1", 40000);
+
+    private ChallengeTokenGenerator generator;
+    private PlayerListArena localPlayers;
+    private final PlayerChangeLog localChanges = new PlayerChangeLog();
+    private QueryHandler handler;
+    private EmbeddedChannel channel;
+
+    private ByteBuf challenge;
+    private ByteBuf basic;
+    private ByteBuf playersPage;
+    private ByteBuf playersDelta;
+    private ByteBuf v1Full;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<PlayerInfo> list = BenchmarkData.players(players);
+        BenchmarkData.publishServerInfo(players);
+        boolean network = mode.equals("network");
+        localPlayers = BenchmarkData.arena(list);
+
+        AuthConfig auth = new AuthConfig();
+        auth.setPublicAccess(new Permissions(true, false));
+        auth.addToken(AUTH_TOKEN, Permissions.allowAll());
+
+        generator = new ChallengeTokenGenerator(ChallengeTokenGenerator.generateSecret());
+        handler = new QueryHandler(
+                HytaleLogger.forEnclosingClass(),
+                generator,
+                new TokenValidator(auth),
+                network ? BenchmarkData.networkModule(BenchmarkData.networkSnapshot(list), localPlayers) : null,
+                localPlayers,
+                localChanges,
+                null,
+                null,
+                true,
+                65536);
+        channel = new EmbeddedChannel(handler);
+
+        challenge = BenchmarkData.v2ChallengeRequest();
+        v1Full = BenchmarkData.v1Request(V1Protocol.TYPE_FULL);
+    }
+
+    /**
+     * Challenge tokens are only valid for two minutes, so they are reissued every iteration.
+     */
+    @Setup(Level.Iteration)
+    public void issueTokens() {
+        basic = BenchmarkData.v2Query(V2Protocol.QueryType.BASIC, generator, client.getAddress(), 0, null);
+        playersPage = BenchmarkData.v2Query(V2Protocol.QueryType.PLAYERS, generator, client.getAddress(), 0, AUTH_TOKEN);
+        playersDelta = BenchmarkData.v2Query(V2Protocol.QueryType.PLAYERS_DELTA, generator, client.getAddress(),
+                localChanges.cursor(), AUTH_TOKEN);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        localPlayers.clear();
+    }
+
+    @Benchmark
+    public int challenge() {
+        return roundTrip(challenge);
+    }
+
+    @Benchmark
+    public int basic() {
+        return roundTrip(basic);
+    }
+
+    @Benchmark
+    public int playersFirstPage() {
+        return roundTrip(playersPage);
+    }
+
+    @Benchmark
+    public int playersDeltaQuiet() {
+        return roundTrip(playersDelta);
+    }
+
+    @Benchmark
+    public int v1Full() {
+        return roundTrip(v1Full);
+    }
+
+    private int roundTrip(ByteBuf request) {
+        channel.writeInbound(new DatagramPacket(request.retainedDuplicate(), server, client));
+        DatagramPacket response = channel.readOutbound();
+        if (response == null) {
+            throw new IllegalStateException("No response for " + mode + " request");
+        }
+        int size = response.content().readableBytes();
+        response.release();
+        return size;
+    }
+}
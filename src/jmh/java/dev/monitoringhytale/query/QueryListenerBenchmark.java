@@ -0,0 +1,116 @@
+package dev.monitoringhytale.query;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+import dev.monitoringhytale.query.config.ListenerConfig;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip CHALLENGE queries against the dedicated listener over loopback.
+ *
+ * <p>Each JMH thread is one client socket, so run with as many threads as the machine has
+ * cores (e.g. {@code -Djmh.args="QueryListener -t 8"}) and compare the {@code sockets} params
+ * to see how throughput scales with SO_REUSEPORT sockets. Timed-out round trips count as
+ * operations too; watch the {@code lost} counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryListenerBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int sockets;
+
+    private QueryListener listener;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        try (DatagramSocket probe = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+
+        ListenerConfig config = new ListenerConfig();
+        config.setEnabled(true);
+        config.setHost("127.0.0.1");
+        config.setPort(port);
+        config.setSockets(sockets);
+
+        QueryHandler handler = new QueryHandler(
+                HytaleLogger.forEnclosingClass(),
+                new ChallengeTokenGenerator(ChallengeTokenGenerator.generateSecret()),
+                null,
+                new PlayerListArena(),
+                false);
+
+        listener = new QueryListener(HytaleLogger.forEnclosingClass(), config);
+        listener.start(handler);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        listener.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        DatagramSocket socket;
+        DatagramPacket request;
+        DatagramPacket response;
+        public long lost;
+
+        @Setup(Level.Trial)
+        public void setup(QueryListenerBenchmark benchmark) throws IOException {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            socket.setSoTimeout(100);
+
+            byte[] bytes = new byte[V2Protocol.MIN_CHALLENGE_REQUEST_SIZE];
+            System.arraycopy(V2Protocol.REQUEST_MAGIC, 0, bytes, 0, V2Protocol.REQUEST_MAGIC.length);
+            bytes[V2Protocol.OFFSET_TYPE] = V2Protocol.QueryType.CHALLENGE.code();
+            request = new DatagramPacket(bytes, bytes.length, InetAddress.getLoopbackAddress(), benchmark.port);
+            response = new DatagramPacket(new byte[1500], 1500);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public int challenge(Client client) throws IOException {
+        client.socket.send(client.request);
+        try {
+            client.socket.receive(client.response);
+            return client.response.getLength();
+        } catch (SocketTimeoutException e) {
+            client.lost++;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package dev.monitoringhytale.query.auth;
+
+import dev.monitoringhytale.query.config.ChallengeAlgorithm;
+import dev.monitoringhytale.query.util.CryptoUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issuing and validating challenge tokens for {@code clients} distinct addresses polling in turn.
+ *
+ * <p>{@code mac} selects the signing path: {@code HMAC_PLAIN} is the original implementation (a
+ * fresh input buffer and {@code doFinal()} result per token, no verified-token cache),
+ * {@code HMAC_SHA256} is HMAC with reused arrays and {@code SIPHASH_2_4} the fast MAC.
+ * {@code cacheSize=0} disables the verified-token cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChallengeTokenBenchmark {
+
+    @Param({"HMAC_PLAIN", "HMAC_SHA256", "SIPHASH_2_4"})
+    public String mac;
+
+    @Param({"0", "4096"})
+    public int cacheSize;
+
+    @Param({"1024"})
+    public int clients;
+
+    private ChallengeTokenGenerator generator;
+    private PlainHmac plain;
+    private InetAddress[] addresses;
+    private byte[][] tokens;
+    private ByteBuf[] tokenBufs;
+    private ByteBuf issued;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] secret = ChallengeTokenGenerator.generateSecret();
+        if (mac.equals("HMAC_PLAIN")) {
+            plain = new PlainHmac(secret);
+        } else {
+            generator = new ChallengeTokenGenerator(secret, ChallengeAlgorithm.valueOf(mac),
+                    ChallengeTokenGenerator.DEFAULT_VALIDITY_SECONDS, cacheSize);
+        }
+
+        addresses = new InetAddress[clients];
+        tokens = new byte[clients][];
+        tokenBufs = new ByteBuf[clients];
+        for (int i = 0; i < clients; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+            tokens[i] = plain != null ? plain.generateToken(addresses[i]) : generator.generateToken(addresses[i]);
+            tokenBufs[i] = Unpooled.wrappedBuffer(tokens[i]);
+        }
+        issued = Unpooled.buffer(ChallengeTokenGenerator.TOKEN_SIZE);
+    }
+
+    private int nextClient() {
+        int i = next;
+        next = i + 1 == clients ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public Object issue() {
+        InetAddress address = addresses[nextClient()];
+        if (plain != null) {
+            return plain.generateToken(address);
+        }
+        issued.clear();
+        generator.writeToken(issued, address);
+        return issued;
+    }
+
+    @Benchmark
+    public boolean verify() {
+        int i = nextClient();
+        if (plain != null) {
+            return plain.validateToken(tokens[i], addresses[i]);
+        }
+        return generator.validateToken(tokenBufs[i], 0, addresses[i]);
+    }
+
+    /**
+     * The token code as it was before MAC state was reused.
+     */
+    static final class PlainHmac {
+
+        private final Mac mac;
+
+        PlainHmac(byte[] secret) throws Exception {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        }
+
+        byte[] generateToken(InetAddress address) {
+            return generateTokenForTimestamp(address, (int) (System.currentTimeMillis() / 1000 / 30));
+        }
+
+        boolean validateToken(byte[] token, InetAddress address) {
+            int tokenTimestamp = ByteBuffer.wrap(token, 0, 4).getInt();
+            int currentTimestamp = (int) (System.currentTimeMillis() / 1000 / 30);
+            for (int i = 0; i < 4; i++) {
+                if (tokenTimestamp == currentTimestamp - i) {
+                    return CryptoUtils.constantTimeEquals(token, generateTokenForTimestamp(address, tokenTimestamp));
+                }
+            }
+            return false;
+        }
+
+        private byte[] generateTokenForTimestamp(InetAddress address, int timestamp) {
+            byte[] token = new byte[ChallengeTokenGenerator.TOKEN_SIZE];
+            token[0] = (byte) (timestamp >> 24);
+            token[1] = (byte) (timestamp >> 16);
+            token[2] = (byte) (timestamp >> 8);
+            token[3] = (byte) timestamp;
+
+            ByteBuffer input = ByteBuffer.allocate(4 + address.getAddress().length);
+            input.putInt(timestamp);
+            input.put(address.getAddress());
+            System.arraycopy(mac.doFinal(input.array()), 0, token, 8, 24);
+            return token;
+        }
+    }
+}
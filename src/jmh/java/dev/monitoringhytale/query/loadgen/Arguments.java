@@ -0,0 +1,42 @@
+package dev.monitoringhytale.query.loadgen;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code --name value} and bare {@code --flag} command line options.
+ */
+final class Arguments {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Arguments(@Nonnull String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            values.put(name, hasValue ? args[++i] : "true");
+        }
+    }
+
+    @Nonnull
+    String string(@Nonnull String name, @Nonnull String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int integer(@Nonnull String name, int defaultValue) {
+        String value = values.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    boolean flag(@Nonnull String name) {
+        return Boolean.parseBoolean(values.getOrDefault(name, "false"));
+    }
+
+    boolean has(@Nonnull String name) {
+        return values.containsKey(name);
+    }
+}
@@ -0,0 +1,494 @@
+package dev.monitoringhytale.query.loadgen;
+
+import dev.monitoringhytale.query.protocol.v1.V1Protocol;
+import dev.monitoringhytale.query.protocol.v2.V2PacketEncoder;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import dev.monitoringhytale.query.protocol.v2.V2TLVWriter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop UDP query load against a query endpoint, reporting latency percentiles and loss.
+ *
+ * <pre>
+ * LoadGenerator [--host 127.0.0.1 --port 5520 | --stub-players 1000 [--stub-network] [--stub-threads 0]]
+ *               [--rate 10000] [--duration 10] [--warmup 2] [--clients 1000] [--sources 64]
+ *               [--mix basic=50,players=30,v1basic=10,v1full=10] [--auth-token TOKEN]
+ * </pre>
+ *
+ * Without {@code --port}, a {@link StubQueryServer} is started in-process on a free loopback port.
+ *
+ * <p>Each simulated client has its own socket, bound to one of {@code --sources} loopback
+ * addresses (127.0.0.2 and up) when the target is on loopback, and keeps its own challenge token
+ * and PLAYERS offset: its PLAYERS requests walk the list page by page and start over after the
+ * last page. A client without a token sends a CHALLENGE in place of its next query.
+ *
+ * <p>Requests go out on a fixed schedule regardless of replies. Latency is measured from when a
+ * request was due, not when it was sent, so a generator or server falling behind shows up as
+ * latency instead of being hidden. A request counts as lost if no reply arrived within a second
+ * of the end of the run.
+ */
+public final class LoadGenerator {
+
+    enum Kind {
+        CHALLENGE, BASIC, PLAYERS, V1_BASIC, V1_FULL
+    }
+
+    private static final long TOKEN_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long CHALLENGE_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int PENDING_SLOTS = 64;
+    private static final int MIX_TABLE_SIZE = 1000;
+
+    private final InetSocketAddress target;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final Kind[] mix;
+    @Nullable
+    private final byte[] authToken;
+
+    private final Selector selector;
+    private final Client[] clients;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(512).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(65536).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final long[] sent = new long[Kind.values().length];
+    private final long[] received = new long[Kind.values().length];
+    private final LatencyHistogram[] latency = new LatencyHistogram[Kind.values().length];
+    private final LatencyHistogram allLatency = new LatencyHistogram();
+    private long denied;
+    private long skipped;
+    private long sendFailures;
+    private long measureStart;
+    private long measureEnd;
+
+    private LoadGenerator(@Nonnull InetSocketAddress target, double rate, long warmupNanos, long durationNanos,
+                          int clientCount, int sources, @Nonnull Kind[] mix, @Nullable byte[] authToken)
+            throws IOException {
+        this.target = target;
+        this.rate = rate;
+        this.warmupNanos = warmupNanos;
+        this.durationNanos = durationNanos;
+        this.mix = mix;
+        this.authToken = authToken;
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LatencyHistogram();
+        }
+
+        selector = Selector.open();
+        clients = new Client[clientCount];
+        boolean loopback = target.getAddress().isLoopbackAddress();
+        for (int i = 0; i < clientCount; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 18);
+            channel.bind(loopback
+                    ? new InetSocketAddress(InetAddress.getByAddress(new byte[]{127, 0, 0, (byte) (2 + i % sources)}), 0)
+                    : new InetSocketAddress(0));
+            channel.connect(target);
+            channel.configureBlocking(false);
+            clients[i] = new Client(channel);
+            channel.register(selector, SelectionKey.OP_READ, clients[i]);
+        }
+    }
+
+    private void run() throws IOException {
+        long start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        measureEnd = measureStart + durationNanos;
+        double interval = TimeUnit.SECONDS.toNanos(1) / rate;
+
+        for (long n = 0; ; n++) {
+            long due = start + (long) (n * interval);
+            if (due >= measureEnd) {
+                break;
+            }
+            poll(due);
+            send(clients[(int) (n % clients.length)], mix[(int) (n % mix.length)], due);
+        }
+
+        poll(System.nanoTime() + DRAIN_NANOS);
+        for (Client client : clients) {
+            client.channel.close();
+        }
+        selector.close();
+    }
+
+    /**
+     * Handle replies until {@code deadline}.
+     */
+    private void poll(long deadline) throws IOException {
+        while (true) {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0) {
+                selector.selectNow();
+            } else if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(wait));
+            } else {
+                selector.selectNow();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                receive((Client) key.attachment());
+            }
+
+            if (deadline - System.nanoTime() <= 0) {
+                return;
+            }
+        }
+    }
+
+    private void send(@Nonnull Client client, @Nonnull Kind kind, long due) throws IOException {
+        long now = System.nanoTime();
+        if (!client.hasToken || now - client.tokenAt > TOKEN_REFRESH_NANOS) {
+            boolean challengePending = client.challengeDue != 0 && now - client.challengeDue < CHALLENGE_RETRY_NANOS;
+            if (!challengePending) {
+                kind = Kind.CHALLENGE;
+            } else if (!client.hasToken) {
+                if (inWindow(due)) {
+                    skipped++;
+                }
+                return;
+            }
+            // Otherwise keep using the old token, still valid for a while, until the new one arrives.
+        }
+
+        out.clear();
+        switch (kind) {
+            case CHALLENGE -> {
+                out.put(V2Protocol.REQUEST_MAGIC);
+                out.put(V2Protocol.QueryType.CHALLENGE.code());
+                client.challengeDue = due;
+            }
+            case BASIC, PLAYERS -> {
+                int requestId = client.nextRequestId++;
+                out.put(V2Protocol.REQUEST_MAGIC);
+                out.put(kind == Kind.PLAYERS ? V2Protocol.QueryType.PLAYERS.code() : V2Protocol.QueryType.BASIC.code());
+                out.put(client.token);
+                out.putInt(requestId);
+                out.putShort(authToken != null ? V2Protocol.FLAG_REQUEST_HAS_AUTH_TOKEN : 0);
+                out.putInt(kind == Kind.PLAYERS ? client.playersOffset : 0);
+                if (authToken != null) {
+                    out.putShort((short) authToken.length);
+                    out.put(authToken);
+                }
+                int slot = requestId & (PENDING_SLOTS - 1);
+                client.v2Ids[slot] = requestId;
+                client.v2Due[slot] = due;
+                client.v2Kinds[slot] = kind;
+            }
+            case V1_BASIC, V1_FULL -> {
+                out.put(V1Protocol.REQUEST_MAGIC);
+                out.put(kind == Kind.V1_FULL ? V1Protocol.TYPE_FULL : V1Protocol.TYPE_BASIC);
+                (kind == Kind.V1_FULL ? client.v1Full : client.v1Basic).add(due);
+            }
+        }
+        out.flip();
+
+        if (client.channel.write(out) == 0) {
+            sendFailures++;
+        }
+        if (inWindow(due)) {
+            sent[kind.ordinal()]++;
+        }
+    }
+
+    private void receive(@Nonnull Client client) {
+        while (true) {
+            in.clear();
+            int length;
+            try {
+                length = client.channel.read(in);
+            } catch (IOException e) {
+                // ICMP port unreachable and the like; the request counts as lost.
+                return;
+            }
+            if (length <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (startsWith(in, V2Protocol.RESPONSE_MAGIC)) {
+                handleV2(client, length, now);
+            } else if (startsWith(in, V1Protocol.RESPONSE_MAGIC)) {
+                handleV1(client, length, now);
+            }
+        }
+    }
+
+    private void handleV2(@Nonnull Client client, int length, long now) {
+        if (in.get(V2Protocol.RESPONSE_MAGIC.length) == V2Protocol.QueryType.CHALLENGE.code()) {
+            if (length < V2Protocol.RESPONSE_MAGIC.length + 1 + V2Protocol.CHALLENGE_TOKEN_SIZE) {
+                return;
+            }
+            in.get(V2Protocol.RESPONSE_MAGIC.length + 1, client.token);
+            client.hasToken = true;
+            client.tokenAt = now;
+            if (client.challengeDue != 0) {
+                record(Kind.CHALLENGE, client.challengeDue, now);
+                client.challengeDue = 0;
+            }
+            return;
+        }
+
+        if (length < V2Protocol.HEADER_SIZE) {
+            return;
+        }
+        short flags = in.getShort(V2Protocol.OFFSET_RESPONSE_FLAGS);
+        int requestId = in.getInt(V2Protocol.OFFSET_RESPONSE_REQUEST_ID);
+        int slot = requestId & (PENDING_SLOTS - 1);
+        if (client.v2Due[slot] == 0 || client.v2Ids[slot] != requestId) {
+            return;
+        }
+        Kind kind = client.v2Kinds[slot];
+        record(kind, client.v2Due[slot], now);
+        client.v2Due[slot] = 0;
+
+        if ((flags & V2Protocol.FLAG_RESPONSE_AUTH_REQUIRED) != 0) {
+            denied++;
+        } else if (kind == Kind.PLAYERS) {
+            int list = findValue(V2TLVWriter.TYPE_PLAYER_LIST, length);
+            if (list < 0 || length < list + 12) {
+                return;
+            }
+            int count = in.getInt(list + 4);
+            int startIndex = in.getInt(list + 8);
+            boolean more = (flags & V2Protocol.FLAG_RESPONSE_HAS_MORE_PLAYERS) != 0;
+            client.playersOffset = more ? startIndex + count : 0;
+        }
+    }
+
+    private void handleV1(@Nonnull Client client, int length, long now) {
+        if (length <= V1Protocol.RESPONSE_MAGIC.length) {
+            return;
+        }
+        boolean full = in.get(V1Protocol.RESPONSE_MAGIC.length) == V1Protocol.TYPE_FULL;
+        long due = (full ? client.v1Full : client.v1Basic).poll();
+        if (due != 0) {
+            record(full ? Kind.V1_FULL : Kind.V1_BASIC, due, now);
+        }
+    }
+
+    private void record(@Nonnull Kind kind, long due, long now) {
+        if (!inWindow(due)) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(now - due);
+        received[kind.ordinal()]++;
+        latency[kind.ordinal()].record(micros);
+        allLatency.record(micros);
+    }
+
+    private boolean inWindow(long due) {
+        return due >= measureStart && due < measureEnd;
+    }
+
+    /**
+     * Get the index of the first TLV value of {@code type} in the received V2 response, or -1.
+     */
+    private int findValue(short type, int length) {
+        int index = V2Protocol.HEADER_SIZE;
+        while (index + V2PacketEncoder.TLV_HEADER_SIZE <= length) {
+            int valueLength = in.getShort(index + 2) & 0xFFFF;
+            if (in.getShort(index) == type) {
+                return index + V2PacketEncoder.TLV_HEADER_SIZE;
+            }
+            index += V2PacketEncoder.TLV_HEADER_SIZE + valueLength;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(@Nonnull ByteBuffer buf, @Nonnull byte[] magic) {
+        if (buf.position() < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (buf.get(i) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void report(@Nonnull String targetDescription, int sources) {
+        double seconds = durationNanos / 1e9;
+        long totalSent = 0;
+        long totalReceived = 0;
+        for (int i = 0; i < sent.length; i++) {
+            totalSent += sent[i];
+            totalReceived += received[i];
+        }
+        long lost = totalSent - totalReceived;
+
+        System.out.printf("Target         %s%n", targetDescription);
+        System.out.printf("Offered        %.0f/s for %.0f s after %.0f s warmup, %d clients from %d addresses%n",
+                rate, seconds, warmupNanos / 1e9, clients.length, sources);
+        System.out.printf("Sent           %d (%.0f/s)%n", totalSent, totalSent / seconds);
+        System.out.printf("Received       %d (%.0f/s)%n", totalReceived, totalReceived / seconds);
+        System.out.printf("Lost           %d (%.3f%%)%n", lost, totalSent > 0 ? 100.0 * lost / totalSent : 0.0);
+        System.out.printf("Auth required  %d%n", denied);
+        System.out.printf("Skipped        %d (client still waiting for a challenge)%n", skipped);
+        System.out.printf("Send failures  %d (socket buffer full)%n", sendFailures);
+        System.out.println();
+        System.out.printf("%-10s %10s %10s %8s %8s %8s %8s %8s   (latency in us)%n",
+                "", "sent", "received", "p50", "p90", "p99", "p99.9", "max");
+        for (Kind kind : Kind.values()) {
+            if (sent[kind.ordinal()] > 0) {
+                printRow(kind.name(), sent[kind.ordinal()], latency[kind.ordinal()]);
+            }
+        }
+        printRow("ALL", totalSent, allLatency);
+    }
+
+    private static void printRow(@Nonnull String name, long sent, @Nonnull LatencyHistogram histogram) {
+        System.out.printf("%-10s %10d %10d %8d %8d %8d %8d %8d%n", name, sent, histogram.count(),
+                histogram.percentile(50), histogram.percentile(90), histogram.percentile(99),
+                histogram.percentile(99.9), histogram.max());
+    }
+
+    /**
+     * Spread the request kinds over a table by weight and shuffle it, so consecutive requests mix
+     * kinds the same way on every run.
+     */
+    @Nonnull
+    static Kind[] parseMix(@Nonnull String spec) {
+        int[] weights = new int[Kind.values().length];
+        int total = 0;
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            Kind kind = switch (kv[0].trim().toLowerCase()) {
+                case "basic" -> Kind.BASIC;
+                case "players" -> Kind.PLAYERS;
+                case "v1basic" -> Kind.V1_BASIC;
+                case "v1full" -> Kind.V1_FULL;
+                default -> throw new IllegalArgumentException("Unknown query kind in --mix: " + kv[0]);
+            };
+            int weight = Integer.parseInt(kv[1].trim());
+            weights[kind.ordinal()] += weight;
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("--mix has no weight");
+        }
+
+        List<Kind> table = new ArrayList<>(MIX_TABLE_SIZE);
+        for (Kind kind : Kind.values()) {
+            long count = Math.round((double) weights[kind.ordinal()] * MIX_TABLE_SIZE / total);
+            for (long i = 0; i < count; i++) {
+                table.add(kind);
+            }
+        }
+        Collections.shuffle(table, new Random(42));
+        return table.toArray(new Kind[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = new Arguments(args);
+        String host = arguments.string("host", "127.0.0.1");
+        int sources = Math.max(1, Math.min(arguments.integer("sources", 64), 250));
+        String authToken = arguments.has("auth-token") ? arguments.string("auth-token", "") : null;
+
+        StubQueryServer stub = null;
+        String description;
+        int port;
+        if (arguments.has("port")) {
+            port = arguments.integer("port", 5520);
+            description = host + ":" + port;
+        } else {
+            int players = arguments.integer("stub-players", 1000);
+            boolean network = arguments.flag("stub-network");
+            stub = StubQueryServer.start("127.0.0.1", 0, players, network, arguments.integer("stub-threads", 0), 1);
+            host = "127.0.0.1";
+            port = stub.port();
+            description = String.format("in-process stub on %s:%d, %d players, %s mode", host, port, players,
+                    network ? "network" : "local");
+        }
+
+        try {
+            LoadGenerator generator = new LoadGenerator(
+                    new InetSocketAddress(host, port),
+                    Math.max(1, arguments.integer("rate", 10000)),
+                    TimeUnit.SECONDS.toNanos(arguments.integer("warmup", 2)),
+                    TimeUnit.SECONDS.toNanos(Math.max(1, arguments.integer("duration", 10))),
+                    Math.max(1, arguments.integer("clients", 1000)),
+                    sources,
+                    parseMix(arguments.string("mix", "basic=50,players=30,v1basic=10,v1full=10")),
+                    authToken != null ? authToken.getBytes(StandardCharsets.UTF_8) : null);
+            generator.run();
+            generator.report(description, sources);
+        } finally {
+            if (stub != null) {
+                stub.close();
+            }
+        }
+    }
+
+    /**
+     * One simulated client: its socket, challenge token, PLAYERS offset and requests awaiting a reply.
+     */
+    private static final class Client {
+
+        final DatagramChannel channel;
+        final byte[] token = new byte[V2Protocol.CHALLENGE_TOKEN_SIZE];
+        boolean hasToken;
+        long tokenAt;
+        long challengeDue;
+        int nextRequestId;
+        int playersOffset;
+
+        final int[] v2Ids = new int[PENDING_SLOTS];
+        final long[] v2Due = new long[PENDING_SLOTS];
+        final Kind[] v2Kinds = new Kind[PENDING_SLOTS];
+
+        // V1 replies carry no request ID, only the query type; they are matched to requests in order.
+        final DueQueue v1Basic = new DueQueue();
+        final DueQueue v1Full = new DueQueue();
+
+        Client(@Nonnull DatagramChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Due times of requests awaiting a reply, oldest first. Holds the last {@link #PENDING_SLOTS}.
+     */
+    private static final class DueQueue {
+
+        private final long[] due = new long[PENDING_SLOTS];
+        private int head;
+        private int tail;
+
+        void add(long time) {
+            if (tail - head == PENDING_SLOTS) {
+                head++;
+            }
+            due[tail++ & (PENDING_SLOTS - 1)] = time;
+        }
+
+        /**
+         * @return The oldest due time, or 0 if none are waiting
+         */
+        long poll() {
+            return head == tail ? 0 : due[head++ & (PENDING_SLOTS - 1)];
+        }
+    }
+}
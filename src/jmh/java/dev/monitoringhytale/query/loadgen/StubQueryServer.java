@@ -0,0 +1,128 @@
+package dev.monitoringhytale.query.loadgen;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.BenchmarkData;
+import dev.monitoringhytale.query.QueryExecutor;
+import dev.monitoringhytale.query.QueryHandler;
+import dev.monitoringhytale.query.QueryListener;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+import dev.monitoringhytale.query.config.ListenerConfig;
+import dev.monitoringhytale.query.config.ProcessingConfig;
+import dev.monitoringhytale.query.network.model.PlayerInfo;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A {@link QueryHandler} on a dedicated {@link QueryListener} with fixed server info and
+ * players, for running {@link LoadGenerator} without a game server.
+ *
+ * <pre>
+ * StubQueryServer [--host 127.0.0.1] [--port 5521] [--players 1000] [--network] [--threads 0] [--sockets 1]
+ * </pre>
+ *
+ * {@code --threads} offloads query processing to that many worker threads; 0 answers on the I/O thread.
+ */
+public final class StubQueryServer implements AutoCloseable {
+
+    private final QueryListener listener;
+    private final QueryHandler handler;
+    private final PlayerListArena localPlayers;
+    @Nullable
+    private final QueryExecutor executor;
+    private final int port;
+
+    private StubQueryServer(@Nonnull QueryListener listener, @Nonnull QueryHandler handler,
+                            @Nonnull PlayerListArena localPlayers, @Nullable QueryExecutor executor, int port) {
+        this.listener = listener;
+        this.handler = handler;
+        this.localPlayers = localPlayers;
+        this.executor = executor;
+        this.port = port;
+    }
+
+    /**
+     * @param port 0 to pick a free port
+     */
+    @Nonnull
+    public static StubQueryServer start(@Nonnull String host, int port, int players, boolean network,
+                                        int threads, int sockets) throws Exception {
+        HytaleLogger logger = HytaleLogger.forEnclosingClass();
+        if (port == 0) {
+            try (DatagramSocket probe = new DatagramSocket(0, InetAddress.getByName(host))) {
+                port = probe.getLocalPort();
+            }
+        }
+
+        List<PlayerInfo> list = BenchmarkData.players(players);
+        BenchmarkData.publishServerInfo(players);
+        PlayerListArena localPlayers = BenchmarkData.arena(list);
+
+        QueryExecutor executor = null;
+        if (threads > 0) {
+            ProcessingConfig processing = new ProcessingConfig();
+            processing.setOffload(true);
+            processing.setThreads(threads);
+            executor = new QueryExecutor(logger, processing);
+        }
+
+        QueryHandler handler = new QueryHandler(
+                logger,
+                new ChallengeTokenGenerator(ChallengeTokenGenerator.generateSecret()),
+                null,
+                network ? BenchmarkData.networkModule(BenchmarkData.networkSnapshot(list), localPlayers) : null,
+                localPlayers,
+                null,
+                executor,
+                null,
+                true,
+                new ProcessingConfig().getMaxPendingBytes());
+
+        ListenerConfig config = new ListenerConfig();
+        config.setEnabled(true);
+        config.setHost(host);
+        config.setPort(port);
+        config.setSockets(sockets);
+
+        QueryListener listener = new QueryListener(logger, config);
+        listener.start(handler);
+        return new StubQueryServer(listener, handler, localPlayers, executor, port);
+    }
+
+    public int port() {
+        return port;
+    }
+
+    @Override
+    public void close() {
+        listener.stop();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        localPlayers.clear();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = new Arguments(args);
+        String host = arguments.string("host", "127.0.0.1");
+        StubQueryServer server = start(host,
+                arguments.integer("port", 5521),
+                arguments.integer("players", 1000),
+                arguments.flag("network"),
+                arguments.integer("threads", 0),
+                arguments.integer("sockets", 1));
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            stopped.countDown();
+        }));
+        System.out.printf("Stub query server on %s:%d, Ctrl-C to stop%n", host, server.port());
+        stopped.await();
+    }
+}
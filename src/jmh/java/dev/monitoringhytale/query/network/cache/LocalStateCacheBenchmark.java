@@ -0,0 +1,114 @@
+package dev.monitoringhytale.query.network.cache;
+
+import dev.monitoringhytale.query.network.model.NetworkSnapshot;
+import dev.monitoringhytale.query.network.model.PlayerInfo;
+import dev.monitoringhytale.query.network.model.ServerState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of applying stream events to a populated cache, and of merging a refresh into it.
+ *
+ * <p>Events are applied in batches of {@link #BATCH_SIZE} joins plus as many leaves, the way the
+ * stream reader applies one XREAD reply, so the per-batch snapshot publication is amortized.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalStateCacheBenchmark {
+
+    private static final int SERVER_COUNT = 50;
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int playerCount;
+
+    private LocalStateCache cache;
+    private NetworkSnapshot full;
+    private long version;
+    private PlayerInfo[] joining;
+    private PlayerInfo[] movingAway;
+    private PlayerInfo[] movingBack;
+    private boolean movedAway;
+
+    @Setup
+    public void setup() {
+        List<ServerState> servers = new ArrayList<>();
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            servers.add(ServerState.builder("server-" + i).serverName("Server " + i).build());
+        }
+
+        List<PlayerInfo> players = new ArrayList<>();
+        for (int i = 0; i < playerCount; i++) {
+            players.add(player(i, i % SERVER_COUNT));
+        }
+
+        cache = new LocalStateCache();
+        full = NetworkSnapshot.of(servers, players);
+        cache.refresh(full, ++version);
+
+        joining = new PlayerInfo[BATCH_SIZE];
+        movingAway = new PlayerInfo[BATCH_SIZE];
+        movingBack = new PlayerInfo[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            joining[i] = player(playerCount + i, i % SERVER_COUNT);
+            movingAway[i] = player(i, (i + 1) % SERVER_COUNT);
+            movingBack[i] = player(i, i % SERVER_COUNT);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE * 2)
+    public void joinThenLeave() {
+        cache.batch(() -> {
+            for (PlayerInfo player : joining) {
+                cache.updatePlayer(player, ++version);
+            }
+            for (PlayerInfo player : joining) {
+                cache.removePlayer(player.uuid(), player.serverId(), ++version);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void moveBetweenServers() {
+        PlayerInfo[] moves = movedAway ? movingBack : movingAway;
+        cache.batch(() -> {
+            for (PlayerInfo player : moves) {
+                cache.updatePlayer(player, ++version);
+            }
+        });
+        movedAway = !movedAway;
+    }
+
+    /**
+     * A periodic refresh that finds the cache already in step, the steady state.
+     */
+    @Benchmark
+    public int refreshInStep() {
+        return cache.refresh(full, ++version).size();
+    }
+
+    private static PlayerInfo player(int index, int server) {
+        return new PlayerInfo(new UUID(0, index), "player" + index, "server-" + server, "Server " + server, 0L);
+    }
+}
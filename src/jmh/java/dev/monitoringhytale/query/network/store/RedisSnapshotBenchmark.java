@@ -0,0 +1,128 @@
+package dev.monitoringhytale.query.network.store;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.config.NetworkConfig;
+import dev.monitoringhytale.query.network.model.NetworkSnapshot;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full network snapshot fetch against a real Redis, through {@link RedisStateStore} versus
+ * the SMEMBERS plus two HGETALLs per server it replaced. The baseline only fetches, without
+ * parsing players, so it is slightly flattered.
+ *
+ * <p>Needs a Redis server at {@code uri}, e.g. {@code redis-server --save '' --appendonly no}.
+ * The data lives under a random network ID and is deleted afterwards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisSnapshotBenchmark {
+
+    @Param("redis://127.0.0.1:6379")
+    public String uri;
+
+    @Param({"10", "100", "1000"})
+    public int servers;
+
+    @Param("50")
+    public int playersPerServer;
+
+    private final String networkId = "bench-" + UUID.randomUUID();
+
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private RedisAsyncCommands<String, String> commands;
+    private RedisStateStore store;
+
+    @Setup
+    public void setup() {
+        client = RedisClient.create(uri);
+        connection = client.connect();
+        commands = connection.async();
+
+        RedisCommands<String, String> sync = connection.sync();
+        for (int s = 0; s < servers; s++) {
+            String serverId = "server-" + s;
+            Map<String, String> server = new HashMap<>();
+            server.put("serverName", "Server " + s);
+            server.put("playerCount", String.valueOf(playersPerServer));
+            server.put("maxPlayers", "100");
+            server.put("port", "5520");
+            server.put("lastHeartbeat", String.valueOf(System.currentTimeMillis()));
+            sync.hset(key("server", serverId), server);
+
+            Map<String, String> players = new HashMap<>();
+            for (int p = 0; p < playersPerServer; p++) {
+                players.put(new UUID(s, p).toString(), "{\"username\":\"Player_" + s + "_" + p + "\",\"joinTime\":0}");
+            }
+            sync.hset(key("server", serverId, "players"), players);
+            sync.sadd(key("servers"), serverId);
+        }
+
+        store = new RedisStateStore(HytaleLogger.forEnclosingClass(), networkId, "bench", uri,
+                new NetworkConfig.TimingConfig(), false);
+        store.start().join();
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.stop().join();
+        List<String> keys = connection.sync().keys("monitoringhytalequery:network:{" + networkId + "}:*");
+        if (!keys.isEmpty()) {
+            connection.sync().del(keys.toArray(new String[0]));
+        }
+        connection.close();
+        client.shutdown();
+    }
+
+    @Benchmark
+    public NetworkSnapshot script() {
+        return store.fetchNetworkSnapshot().join();
+    }
+
+    @Benchmark
+    public int perServerCommands() {
+        Set<String> serverIds = commands.smembers(key("servers")).toCompletableFuture().join();
+        List<CompletableFuture<Map<String, String>>> futures = new ArrayList<>(serverIds.size() * 2);
+        for (String serverId : serverIds) {
+            futures.add(commands.hgetall(key("server", serverId)).toCompletableFuture());
+            futures.add(commands.hgetall(key("server", serverId, "players")).toCompletableFuture());
+        }
+        int fields = 0;
+        for (CompletableFuture<Map<String, String>> future : futures) {
+            fields += future.join().size();
+        }
+        return fields;
+    }
+
+    private String key(String... parts) {
+        return "monitoringhytalequery:network:{" + networkId + "}:" + String.join(":", parts);
+    }
+}
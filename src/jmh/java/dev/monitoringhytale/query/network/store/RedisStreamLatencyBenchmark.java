@@ -0,0 +1,100 @@
+package dev.monitoringhytale.query.network.store;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.config.NetworkConfig;
+import dev.monitoringhytale.query.network.model.NetworkEvent;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from an event being added to the events stream until a {@link RedisStateStore}
+ * subscriber sees it. With the old 100 ms poll this was half the poll interval on average.
+ *
+ * <p>Needs a Redis server at {@code uri}, e.g. {@code redis-server --save '' --appendonly no}.
+ * The data lives under a random network ID and is deleted afterwards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisStreamLatencyBenchmark {
+
+    @Param("redis://127.0.0.1:6379")
+    public String uri;
+
+    private final String networkId = "bench-" + UUID.randomUUID();
+    private final LinkedBlockingQueue<UUID> joined = new LinkedBlockingQueue<>();
+
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private RedisCommands<String, String> commands;
+    private RedisStateStore store;
+
+    @Setup
+    public void setup() {
+        client = RedisClient.create(uri);
+        connection = client.connect();
+        commands = connection.sync();
+
+        store = new RedisStateStore(HytaleLogger.forEnclosingClass(), networkId, "bench", uri,
+                new NetworkConfig.TimingConfig(), true);
+        store.subscribe(event -> {
+            if (event instanceof NetworkEvent.PlayerJoin join) {
+                joined.offer(join.uuid());
+            }
+        });
+        store.start().join();
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.stop().join();
+        List<String> keys = commands.keys("monitoringhytalequery:network:{" + networkId + "}:*");
+        if (!keys.isEmpty()) {
+            commands.del(keys.toArray(new String[0]));
+        }
+        connection.close();
+        client.shutdown();
+    }
+
+    @Benchmark
+    public UUID joinToListener() throws InterruptedException {
+        UUID uuid = UUID.randomUUID();
+        commands.xadd(key("events"), Map.of("data",
+                "{\"type\":\"join\",\"uuid\":\"" + uuid + "\",\"server\":\"other\",\"username\":\"Bench\"}"));
+
+        UUID seen;
+        do {
+            seen = joined.poll(5, TimeUnit.SECONDS);
+            if (seen == null) {
+                throw new IllegalStateException("Event not delivered within 5 seconds");
+            }
+        } while (!seen.equals(uuid));
+        return seen;
+    }
+
+    private String key(String... parts) {
+        return "monitoringhytalequery:network:{" + networkId + "}:" + String.join(":", parts);
+    }
+}
@@ -0,0 +1,103 @@
+package dev.monitoringhytale.query.protocol;
+
+import dev.monitoringhytale.query.BenchmarkData;
+import dev.monitoringhytale.query.network.model.NetworkSnapshot;
+import dev.monitoringhytale.query.network.model.PlayerInfo;
+import dev.monitoringhytale.query.protocol.v1.V1ResponseBuilder;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2ResponseBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building each response type from scratch, bypassing {@link ResponseCache}. Every response is
+ * released right away, so with {@code -prof gc} the {@code gc.alloc.rate.norm} column is the heap
+ * garbage per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBuilderBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int players;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private NetworkSnapshot snapshot;
+    private PlayerListArena arena;
+    private int lastPageOffset;
+
+    @Setup
+    public void setup() {
+        List<PlayerInfo> list = BenchmarkData.players(players);
+        BenchmarkData.publishServerInfo(players);
+        snapshot = BenchmarkData.networkSnapshot(list);
+        arena = BenchmarkData.arena(list);
+        lastPageOffset = Math.max(0, players - 10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        arena.clear();
+    }
+
+    @Benchmark
+    public int v2Basic() {
+        return release(V2ResponseBuilder.buildBasicResponse(alloc, 1, (short) 0, 0));
+    }
+
+    @Benchmark
+    public int v2BasicNetwork() {
+        return release(V2ResponseBuilder.buildBasicResponse(alloc, 1, snapshot, 0));
+    }
+
+    @Benchmark
+    public int v2PlayersFirstPage() {
+        return release(V2ResponseBuilder.buildPlayersResponse(alloc, 1, (short) 0, arena, 0, 0));
+    }
+
+    @Benchmark
+    public int v2PlayersLastPage() {
+        return release(V2ResponseBuilder.buildPlayersResponse(alloc, 1, (short) 0, arena, lastPageOffset, 0));
+    }
+
+    @Benchmark
+    public int v1Basic() {
+        return release(V1ResponseBuilder.buildBasicResponse(alloc));
+    }
+
+    @Benchmark
+    public int v1Full() {
+        return release(V1ResponseBuilder.buildFullResponse(alloc, arena));
+    }
+
+    @Benchmark
+    public int v1FullNetwork() {
+        return release(V1ResponseBuilder.buildFullResponse(alloc, snapshot));
+    }
+
+    private static int release(ByteBuf response) {
+        int size = response.readableBytes();
+        response.release();
+        return size;
+    }
+}
@@ -0,0 +1,76 @@
+package dev.monitoringhytale.query.protocol.v2;
+
+import dev.monitoringhytale.query.BenchmarkData;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizing and reading V2 requests the way {@code QueryHandler} does: magic check, query
+ * type, then the fields through the {@link V2Request} view.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class V2RequestParserBenchmark {
+
+    private final V2Request request = new V2Request();
+    private ByteBuf challenge;
+    private ByteBuf players;
+    private ByteBuf playersWithAuth;
+
+    @Setup
+    public void setup() throws Exception {
+        ChallengeTokenGenerator generator = new ChallengeTokenGenerator(ChallengeTokenGenerator.generateSecret());
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        challenge = BenchmarkData.v2ChallengeRequest();
+        players = BenchmarkData.v2Query(V2Protocol.QueryType.PLAYERS, generator, address, 120, null);
+        playersWithAuth = BenchmarkData.v2Query(V2Protocol.QueryType.PLAYERS, generator, address, 120,
+                "admin-token-0123456789abcdef");
+    }
+
+    @Benchmark
+    public byte challenge() {
+        return V2RequestParser.isRequest(challenge) ? V2RequestParser.getQueryType(challenge) : -1;
+    }
+
+    @Benchmark
+    public void query(Blackhole bh) {
+        parse(players, bh);
+    }
+
+    @Benchmark
+    public void queryWithAuthToken(Blackhole bh) {
+        parse(playersWithAuth, bh);
+    }
+
+    private void parse(ByteBuf buf, Blackhole bh) {
+        if (!V2RequestParser.isRequest(buf)) {
+            return;
+        }
+        V2Request r = request.wrap(buf);
+        bh.consume(r.queryType());
+        bh.consume(r.hasChallengeToken() ? r.challengeTokenIndex() : -1);
+        bh.consume(r.requestId());
+        bh.consume(r.offset());
+        bh.consume(r.authTokenIndex());
+        bh.consume(r.authTokenLength());
+        r.clear();
+    }
+}
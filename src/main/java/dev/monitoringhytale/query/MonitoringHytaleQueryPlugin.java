@@ -6,19 +6,29 @@ import com.hypixel.hytale.server.core.event.events.player.PlayerDisconnectEvent;
 import com.hypixel.hytale.server.core.io.ServerManager;
 import com.hypixel.hytale.server.core.plugin.JavaPlugin;
 import com.hypixel.hytale.server.core.plugin.JavaPluginInit;
+import com.hypixel.hytale.server.core.universe.PlayerRef;
 import com.hypixel.hytale.server.core.util.Config;
 import dev.monitoringhytale.query.api.MonitoringHytaleQueryAPI;
 import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
 import dev.monitoringhytale.query.auth.TokenValidator;
 import dev.monitoringhytale.query.config.AuthConfig;
+import dev.monitoringhytale.query.config.ChallengeAlgorithm;
+import dev.monitoringhytale.query.config.ChallengeConfig;
 import dev.monitoringhytale.query.config.ConfigMigration;
+import dev.monitoringhytale.query.config.ListenerConfig;
 import dev.monitoringhytale.query.config.NetworkConfig;
 import dev.monitoringhytale.query.config.Permissions;
+import dev.monitoringhytale.query.config.ProcessingConfig;
 import dev.monitoringhytale.query.config.QueryConfig;
+import dev.monitoringhytale.query.config.RateLimitConfig;
 import dev.monitoringhytale.query.config.ServerInfoConfig;
 import dev.monitoringhytale.query.network.NetworkModule;
 import dev.monitoringhytale.query.network.PlayerEventListener;
+import dev.monitoringhytale.query.network.SharedChallengeKeys;
 import dev.monitoringhytale.query.protocol.ServerDataProvider;
+import dev.monitoringhytale.query.protocol.v2.PlayerChangeLog;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.ratelimit.RateLimiter;
 import dev.monitoringhytale.query.util.PromotionLogger;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
@@ -26,6 +36,9 @@ import io.netty.channel.ChannelPipeline;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 public class MonitoringHytaleQueryPlugin extends JavaPlugin {
@@ -34,12 +47,19 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
     private static final String CONFIG_NAME = "config";
 
     private final Config<QueryConfig> configWrapper = withConfig(CONFIG_NAME, QueryConfig.CODEC);
+    private final PlayerListArena localPlayers = new PlayerListArena();
+    private final PlayerChangeLog localChanges = new PlayerChangeLog();
 
     private QueryHandler queryHandler;
+    private QueryExecutor queryExecutor;
+    private QueryListener queryListener;
+    private ScheduledExecutorService serverInfoRefresher;
     private QueryConfig config;
     private ChallengeTokenGenerator challengeTokenGenerator;
     private TokenValidator tokenValidator;
+    private RateLimiter rateLimiter;
     private NetworkModule networkModule;
+    private SharedChallengeKeys sharedChallengeKeys;
     private PlayerEventListener playerEventListener;
 
     public MonitoringHytaleQueryPlugin(@Nonnull JavaPluginInit init) {
@@ -60,7 +80,9 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
         initializeServerInfoConfig();
         initializeChallengeTokenGenerator();
         initializeTokenValidator();
+        initializeRateLimiter();
         initializeNetworkModule();
+        this.playerEventListener = new PlayerEventListener(localPlayers, localChanges, networkModule);
     }
 
     @Override
@@ -71,29 +93,43 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
 
         ServerManager.get().waitForBindComplete();
         startNetworkModule();
+        startSharedChallengeKeys();
+        registerPlayerEvents();
+        startServerInfoRefresh();
+        startQueryExecutor();
 
         this.queryHandler = new QueryHandler(
                 getLogger(),
                 challengeTokenGenerator,
                 tokenValidator,
                 networkModule,
-                config.isLegacyProtocolEnabled()
+                localPlayers,
+                localChanges,
+                queryExecutor,
+                rateLimiter,
+                config.isLegacyProtocolEnabled(),
+                config.getProcessing().isCoalesceWrites() ? config.getProcessing().getMaxPendingBytes() : 0
         );
 
+        startQueryListener();
+
         int registered = 0;
-        for (Channel channel : ServerManager.get().getListeners()) {
-            try {
-                ChannelPipeline pipeline = channel.pipeline();
-                pipeline.addFirst(HANDLER_NAME, queryHandler);
-                registered++;
-                getLogger().at(Level.FINE).log("Registered query handler on %s", channel.localAddress());
-            } catch (Exception e) {
-                getLogger().at(Level.WARNING).withCause(e).log(
-                        "Failed to register query handler on %s", channel.localAddress());
+        if (queryListener == null || config.getListener().isGamePort()) {
+            for (Channel channel : ServerManager.get().getListeners()) {
+                try {
+                    ChannelPipeline pipeline = channel.pipeline();
+                    pipeline.addFirst(HANDLER_NAME, queryHandler);
+                    registered++;
+                    getLogger().at(Level.FINE).log("Registered query handler on %s", channel.localAddress());
+                } catch (Exception e) {
+                    getLogger().at(Level.WARNING).withCause(e).log(
+                            "Failed to register query handler on %s", channel.localAddress());
+                }
             }
         }
 
-        getLogger().at(Level.INFO).log("MONITORINGHYTALEQUERY v2 protocol enabled on %d listener(s)", registered);
+        getLogger().at(Level.INFO).log("MONITORINGHYTALEQUERY v2 protocol enabled on %d listener(s)%s", registered,
+                queryListener != null ? " and the dedicated query port" : "");
 
         logAccessConfig();
 
@@ -103,7 +139,9 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
 
     @Override
     protected void shutdown() {
+        stopSharedChallengeKeys();
         stopNetworkModule();
+        stopServerInfoRefresh();
 
         if (queryHandler == null) {
             return;
@@ -123,6 +161,10 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
         }
 
         getLogger().at(Level.INFO).log("Query protocol disabled, removed from %d listener(s)", removed);
+        stopQueryListener();
+        logDropCounts();
+        stopQueryExecutor();
+        localPlayers.clear();
         this.queryHandler = null;
     }
 
@@ -145,8 +187,10 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
 
     private void initializeChallengeTokenGenerator() {
         byte[] secret = ChallengeTokenGenerator.generateSecret();
-        this.challengeTokenGenerator = new ChallengeTokenGenerator(secret);
-        getLogger().at(Level.FINE).log("Challenge token generator initialized");
+        ChallengeAlgorithm algorithm = config.getChallenge().getAlgorithm();
+        this.challengeTokenGenerator = new ChallengeTokenGenerator(secret, algorithm,
+                ChallengeTokenGenerator.DEFAULT_VALIDITY_SECONDS, ChallengeTokenGenerator.DEFAULT_VERIFIED_CACHE_SIZE);
+        getLogger().at(Level.FINE).log("Challenge token generator initialized (%s)", algorithm);
     }
 
     private void initializeTokenValidator() {
@@ -154,6 +198,17 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
         this.tokenValidator = new TokenValidator(authConfig);
     }
 
+    private void initializeRateLimiter() {
+        RateLimitConfig rateLimitConfig = config.getRateLimit();
+        if (!rateLimitConfig.isEnabled()) {
+            getLogger().at(Level.FINE).log("Rate limiting disabled");
+            return;
+        }
+
+        this.rateLimiter = new RateLimiter(rateLimitConfig);
+        getLogger().at(Level.FINE).log("Rate limiter initialized (%d slots)", rateLimitConfig.getTableSize());
+    }
+
     private void initializeNetworkModule() {
         NetworkConfig networkConfig = config.getNetwork();
         if (!networkConfig.isEnabled()) {
@@ -171,8 +226,6 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
                 serverName
         );
 
-        this.playerEventListener = new PlayerEventListener(networkModule);
-
         getLogger().at(Level.FINE).log("Network module initialized (serverId=%s, mode=%s, network=%s)",
                 serverId, networkConfig.getMode(), networkConfig.getNetworkId());
     }
@@ -185,16 +238,137 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
         try {
             networkModule.start().join();
 
-            getEventRegistry().register(PlayerConnectEvent.class, playerEventListener::onPlayerConnect);
-            getEventRegistry().register(PlayerDisconnectEvent.class, playerEventListener::onPlayerDisconnect);
-
             MonitoringHytaleQueryAPI.init(networkModule);
 
             getLogger().at(Level.INFO).log("Network module started");
         } catch (Exception e) {
             getLogger().at(Level.SEVERE).withCause(e).log("Failed to start network module");
             networkModule = null;
-            playerEventListener = null;
+        }
+    }
+
+    private void startSharedChallengeKeys() {
+        ChallengeConfig challenge = config.getChallenge();
+        if (!challenge.isSharedSecret()) {
+            return;
+        }
+        if (networkModule == null) {
+            getLogger().at(Level.WARNING).log("Challenge.SharedSecret requires network mode; using a per-server secret");
+            return;
+        }
+
+        this.sharedChallengeKeys = new SharedChallengeKeys(getLogger(), networkModule, challengeTokenGenerator,
+                challenge.getKeyRotationMinutes());
+        sharedChallengeKeys.start();
+        getLogger().at(Level.INFO).log("Challenge keys shared across network %s, rotated every %d minute(s)",
+                networkModule.getConfig().getNetworkId(), challenge.getKeyRotationMinutes());
+    }
+
+    private void stopSharedChallengeKeys() {
+        if (sharedChallengeKeys == null) {
+            return;
+        }
+
+        sharedChallengeKeys.stop();
+        this.sharedChallengeKeys = null;
+    }
+
+    private void registerPlayerEvents() {
+        getEventRegistry().register(PlayerConnectEvent.class, playerEventListener::onPlayerConnect);
+        getEventRegistry().register(PlayerDisconnectEvent.class, playerEventListener::onPlayerDisconnect);
+
+        // Seed with anyone already online; from here on the events keep the list current.
+        localPlayers.reset(ServerDataProvider.getPlayers(), PlayerRef::getUuid, PlayerRef::getUsername);
+    }
+
+    private void startServerInfoRefresh() {
+        ServerDataProvider.refresh();
+        ServerDataProvider.setPlayerCount(localPlayers.size());
+
+        int interval = config.getServerInfo().getRefreshIntervalSeconds();
+        this.serverInfoRefresher = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "monitoringhytalequery-server-info");
+            t.setDaemon(true);
+            return t;
+        });
+        serverInfoRefresher.scheduleWithFixedDelay(() -> {
+            try {
+                ServerDataProvider.refresh();
+            } catch (Exception e) {
+                getLogger().at(Level.WARNING).withCause(e).log("Failed to refresh server info");
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void stopServerInfoRefresh() {
+        if (serverInfoRefresher == null) {
+            return;
+        }
+
+        serverInfoRefresher.shutdownNow();
+        this.serverInfoRefresher = null;
+    }
+
+    private void startQueryExecutor() {
+        ProcessingConfig processing = config.getProcessing();
+        if (!processing.isOffload()) {
+            return;
+        }
+
+        this.queryExecutor = new QueryExecutor(getLogger(), processing);
+        getLogger().at(Level.INFO).log("Query processing offloaded to %d %s thread(s), queue capacity %d",
+                processing.getThreads(), processing.isVirtualThreads() ? "virtual" : "platform",
+                processing.getQueueCapacity());
+    }
+
+    private void stopQueryExecutor() {
+        if (queryExecutor == null) {
+            return;
+        }
+
+        queryExecutor.shutdown();
+        this.queryExecutor = null;
+    }
+
+    private void startQueryListener() {
+        ListenerConfig listenerConfig = config.getListener();
+        if (!listenerConfig.isEnabled()) {
+            return;
+        }
+
+        QueryListener listener = new QueryListener(getLogger(), listenerConfig);
+        try {
+            listener.start(queryHandler);
+            this.queryListener = listener;
+        } catch (Exception e) {
+            getLogger().at(Level.SEVERE).withCause(e).log("Failed to bind query listener on port %d, using the game port only",
+                    listenerConfig.getPort());
+        }
+    }
+
+    private void stopQueryListener() {
+        if (queryListener == null) {
+            return;
+        }
+
+        queryListener.stop();
+        this.queryListener = null;
+    }
+
+    private void logDropCounts() {
+        long rejected = queryExecutor != null ? queryExecutor.getRejectedCount() : 0;
+        long unwritable = queryHandler.getUnwritableDropCount();
+        if (rejected > 0 || unwritable > 0) {
+            getLogger().at(Level.INFO).log("Dropped %d queries before processing and %d responses (channel not writable)",
+                    rejected, unwritable);
+        }
+        if (rateLimiter != null && rateLimiter.getDroppedCount() > 0) {
+            getLogger().at(Level.INFO).log("Rate limited %d queries (challenge=%d, basic=%d, players=%d, legacy=%d)",
+                    rateLimiter.getDroppedCount(),
+                    rateLimiter.getDroppedCount(RateLimiter.Bucket.CHALLENGE),
+                    rateLimiter.getDroppedCount(RateLimiter.Bucket.BASIC),
+                    rateLimiter.getDroppedCount(RateLimiter.Bucket.PLAYERS),
+                    rateLimiter.getDroppedCount(RateLimiter.Bucket.LEGACY));
         }
     }
 
@@ -213,7 +387,6 @@ public class MonitoringHytaleQueryPlugin extends JavaPlugin {
         }
 
         networkModule = null;
-        playerEventListener = null;
     }
 
     private void logAccessConfig() {
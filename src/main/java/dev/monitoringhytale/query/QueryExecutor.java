@@ -0,0 +1,130 @@
+package dev.monitoringhytale.query;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.config.ProcessingConfig;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.DatagramPacket;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Processes query datagrams on dedicated threads, away from the game server's I/O thread.
+ *
+ * <p>Datagrams wait in a bounded queue. When it is full the datagram is dropped and counted,
+ * so a query flood costs the I/O thread one classification and one queue offer per packet.
+ */
+public final class QueryExecutor {
+
+    private static final String THREAD_NAME = "monitoringhytalequery-worker-";
+
+    @Nonnull
+    private final HytaleLogger logger;
+
+    private final BlockingQueue<Pending> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile boolean running = true;
+
+    public QueryExecutor(@Nonnull HytaleLogger logger, @Nonnull ProcessingConfig config) {
+        this.logger = logger;
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+
+        Thread.Builder builder = config.isVirtualThreads()
+                ? Thread.ofVirtual().name(THREAD_NAME, 0)
+                : Thread.ofPlatform().daemon().name(THREAD_NAME, 0);
+        for (int i = 0; i < config.getThreads(); i++) {
+            workers.add(builder.start(this::runWorker));
+        }
+    }
+
+    /**
+     * Queue a datagram for processing. Takes ownership of the packet: it is released here if the
+     * queue is full, otherwise by {@code processor}.
+     *
+     * @return false if the datagram was dropped
+     */
+    public boolean submit(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket packet,
+                          @Nonnull Processor processor) {
+        if (running && queue.offer(new Pending(ctx, packet, processor))) {
+            return true;
+        }
+        rejected.increment();
+        packet.release();
+        return false;
+    }
+
+    /**
+     * Count a datagram dropped before it reached the queue.
+     */
+    public void reject(@Nonnull DatagramPacket packet) {
+        rejected.increment();
+        packet.release();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stop the workers and release every datagram still waiting.
+     */
+    public void shutdown() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.packet().release();
+        }
+    }
+
+    private void runWorker() {
+        while (running) {
+            Pending next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                next.processor().process(next.ctx(), next.packet());
+            } catch (Exception e) {
+                logger.at(Level.WARNING).withCause(e).log("Unhandled exception while processing query");
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Processor {
+        /**
+         * Process the datagram and release it.
+         */
+        void process(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket packet);
+    }
+
+    private record Pending(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket packet,
+                           @Nonnull Processor processor) {
+    }
+}
@@ -5,24 +5,44 @@ import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
 import dev.monitoringhytale.query.auth.TokenValidator;
 import dev.monitoringhytale.query.network.NetworkModule;
 import dev.monitoringhytale.query.network.model.NetworkSnapshot;
+import dev.monitoringhytale.query.protocol.ResponseCache;
+import dev.monitoringhytale.query.protocol.StateGeneration;
 import dev.monitoringhytale.query.protocol.v1.V1Protocol;
 import dev.monitoringhytale.query.protocol.v1.V1RequestParser;
-import dev.monitoringhytale.query.protocol.v1.V1ResponseBuilder;
+import dev.monitoringhytale.query.protocol.v2.PlayerChangeLog;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
 import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import dev.monitoringhytale.query.protocol.v2.V2Request;
 import dev.monitoringhytale.query.protocol.v2.V2RequestParser;
 import dev.monitoringhytale.query.protocol.v2.V2ResponseBuilder;
+import dev.monitoringhytale.query.ratelimit.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.FastThreadLocal;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 public class QueryHandler extends ChannelInboundHandlerAdapter {
 
+    private static final AttributeKey<PendingWrites> PENDING_WRITES =
+            AttributeKey.valueOf(QueryHandler.class, "pendingWrites");
+
+    private static final FastThreadLocal<V2Request> REQUEST = new FastThreadLocal<>() {
+        @Override
+        protected V2Request initialValue() {
+            return new V2Request();
+        }
+    };
+
     @Nonnull
     private final HytaleLogger logger;
 
@@ -35,25 +55,70 @@ public class QueryHandler extends ChannelInboundHandlerAdapter {
     @Nullable
     private final NetworkModule networkModule;
 
+    @Nonnull
+    private final PlayerListArena localPlayers;
+
+    @Nullable
+    private final PlayerChangeLog localChanges;
+
+    @Nullable
+    private final QueryExecutor executor;
+
+    @Nullable
+    private final RateLimiter rateLimiter;
+
     private final boolean legacyEnabled;
 
+    private final int maxPendingBytes;
+
+    private final ResponseCache responseCache = new ResponseCache();
+
+    private final LongAdder unwritableDrops = new LongAdder();
+
+    // Bound once so the per-packet paths don't allocate a capturing lambda each time.
+    private final QueryExecutor.Processor v2Processor = this::handleV2Query;
+    private final QueryExecutor.Processor v1Processor = this::handleV1Query;
+
+    @Nullable
+    private final Supplier<NetworkSnapshot> networkSnapshot;
+
     public QueryHandler(@Nonnull HytaleLogger logger,
                         @Nonnull ChallengeTokenGenerator challengeTokenGenerator,
                         @Nullable TokenValidator tokenValidator,
+                        @Nonnull PlayerListArena localPlayers,
                         boolean legacyEnabled) {
-        this(logger, challengeTokenGenerator, tokenValidator, null, legacyEnabled);
+        this(logger, challengeTokenGenerator, tokenValidator, null, localPlayers, null, null, null, legacyEnabled, 0);
     }
 
+    /**
+     * @param localChanges    Joins and leaves of {@code localPlayers}, or null to answer every
+     *                        PLAYERS_DELTA query with a resync
+     * @param executor        Where to process queries, or null to process them on the I/O thread
+     * @param rateLimiter     Per-source limits checked before any processing, or null for none
+     * @param maxPendingBytes Queue responses written on the I/O thread and flush them once per
+     *                        read batch or once this many bytes are pending; 0 flushes every response
+     */
     public QueryHandler(@Nonnull HytaleLogger logger,
                         @Nonnull ChallengeTokenGenerator challengeTokenGenerator,
                         @Nullable TokenValidator tokenValidator,
                         @Nullable NetworkModule networkModule,
-                        boolean legacyEnabled) {
+                        @Nonnull PlayerListArena localPlayers,
+                        @Nullable PlayerChangeLog localChanges,
+                        @Nullable QueryExecutor executor,
+                        @Nullable RateLimiter rateLimiter,
+                        boolean legacyEnabled,
+                        int maxPendingBytes) {
         this.logger = logger;
         this.challengeTokenGenerator = challengeTokenGenerator;
         this.tokenValidator = tokenValidator;
         this.networkModule = networkModule;
+        this.networkSnapshot = networkModule != null ? networkModule::getNetworkSnapshotSync : null;
+        this.localPlayers = localPlayers;
+        this.localChanges = localChanges;
+        this.executor = executor;
+        this.rateLimiter = rateLimiter;
         this.legacyEnabled = legacyEnabled;
+        this.maxPendingBytes = maxPendingBytes;
     }
 
     @Override
@@ -67,15 +132,17 @@ public class QueryHandler extends ChannelInboundHandlerAdapter {
             ByteBuf content = packet.content();
 
             if (V2RequestParser.isRequest(content)) {
-                handleV2Query(ctx, packet);
+                if (allow(v2Bucket(V2RequestParser.getQueryType(content)), packet)) {
+                    dispatch(ctx, packet, v2Processor);
+                }
                 return;
             }
 
             if (V1RequestParser.isRequest(content)) {
-                if (legacyEnabled) {
-                    handleV1Query(ctx, packet);
-                } else {
+                if (!legacyEnabled) {
                     packet.release();
+                } else if (allow(RateLimiter.Bucket.LEGACY, packet)) {
+                    dispatch(ctx, packet, v1Processor);
                 }
                 return;
             }
@@ -84,21 +151,106 @@ public class QueryHandler extends ChannelInboundHandlerAdapter {
         ctx.fireChannelRead(msg);
     }
 
-    private void handleV2Query(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket request) {
+    /**
+     * Check the sender's rate limit, releasing the packet if it is over.
+     */
+    private boolean allow(@Nonnull RateLimiter.Bucket bucket, @Nonnull DatagramPacket packet) {
+        if (rateLimiter == null || rateLimiter.tryAcquire(bucket, packet.sender().getAddress())) {
+            return true;
+        }
+        packet.release();
+        return false;
+    }
+
+    @Nonnull
+    private static RateLimiter.Bucket v2Bucket(byte queryType) {
+        V2Protocol.QueryType type = V2Protocol.QueryType.fromCode(queryType);
+        if (type == V2Protocol.QueryType.CHALLENGE) {
+            return RateLimiter.Bucket.CHALLENGE;
+        }
+        return type == V2Protocol.QueryType.PLAYERS || type == V2Protocol.QueryType.PLAYERS_DELTA
+                ? RateLimiter.Bucket.PLAYERS : RateLimiter.Bucket.BASIC;
+    }
+
+    private void dispatch(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket packet,
+                          @Nonnull QueryExecutor.Processor processor) {
+        if (executor == null) {
+            processor.process(ctx, packet);
+        } else if (!ctx.channel().isWritable()) {
+            // Replies could not be sent anyway; don't spend a worker on them.
+            executor.reject(packet);
+        } else {
+            executor.submit(ctx, packet, processor);
+        }
+    }
+
+    /**
+     * Send a response unless the channel's outbound buffer is over its high water mark,
+     * in which case the response is dropped to leave room for game traffic.
+     *
+     * <p>When coalescing, responses written on the I/O thread are only queued here and flushed
+     * together in {@link #channelReadComplete}, so one read batch costs one send syscall
+     * (or one sendmmsg on epoll) instead of one per response.
+     */
+    private void send(@Nonnull ChannelHandlerContext ctx, @Nonnull ByteBuf response, @Nonnull InetSocketAddress recipient) {
+        if (!ctx.channel().isWritable()) {
+            response.release();
+            unwritableDrops.increment();
+            return;
+        }
+
+        if (maxPendingBytes <= 0 || !ctx.executor().inEventLoop()) {
+            ctx.writeAndFlush(new DatagramPacket(response, recipient));
+            return;
+        }
+
+        int size = response.readableBytes();
+        ctx.write(new DatagramPacket(response, recipient));
+
+        PendingWrites pending = pendingWrites(ctx);
+        pending.bytes += size;
+        if (pending.bytes >= maxPendingBytes) {
+            pending.bytes = 0;
+            ctx.flush();
+        }
+    }
+
+    @Override
+    public void channelReadComplete(@Nonnull ChannelHandlerContext ctx) {
+        PendingWrites pending = ctx.channel().attr(PENDING_WRITES).get();
+        if (pending != null && pending.bytes > 0) {
+            pending.bytes = 0;
+            ctx.flush();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Nonnull
+    private static PendingWrites pendingWrites(@Nonnull ChannelHandlerContext ctx) {
+        Attribute<PendingWrites> attr = ctx.channel().attr(PENDING_WRITES);
+        PendingWrites pending = attr.get();
+        if (pending == null) {
+            pending = new PendingWrites();
+            attr.set(pending);
+        }
+        return pending;
+    }
+
+    private void handleV2Query(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket packet) {
+        V2Request request = REQUEST.get().wrap(packet.content());
         try {
-            InetSocketAddress sender = request.sender();
-            ByteBuf content = request.content();
-            V2Protocol.QueryType queryType = V2Protocol.QueryType.fromCode(V2RequestParser.getQueryType(content));
+            InetSocketAddress sender = packet.sender();
+            V2Protocol.QueryType queryType = V2Protocol.QueryType.fromCode(request.queryType());
 
             logger.at(Level.FINE).log("V2 query request (type=%s) from %s", queryType, sender);
 
             if (queryType == V2Protocol.QueryType.CHALLENGE) {
-                handleChallengeRequest(ctx, request);
+                handleChallengeRequest(ctx, sender);
                 return;
             }
 
-            byte[] challengeToken = V2RequestParser.extractChallengeToken(content);
-            if (!challengeTokenGenerator.validateToken(challengeToken, sender.getAddress())) {
+            if (!request.hasChallengeToken()
+                    || !challengeTokenGenerator.validateToken(request.buffer(), request.challengeTokenIndex(), sender.getAddress())) {
                 logger.at(Level.FINE).log("Invalid challenge token from %s, dropping request", sender);
                 return;
             }
@@ -107,51 +259,57 @@ public class QueryHandler extends ChannelInboundHandlerAdapter {
                 queryType = V2Protocol.QueryType.BASIC;
             }
 
-            byte[] authToken = V2RequestParser.extractAuthToken(content);
-
-            String endpoint = queryType.endpoint();
-            if (endpoint != null && tokenValidator != null && !tokenValidator.isAccessAllowed(endpoint, authToken)) {
-                logger.at(Level.FINE).log("Access denied for endpoint '%s' from %s", endpoint, sender);
-                sendAuthRequiredResponse(ctx, request);
+            int endpointBit = queryType.endpointBit();
+            if (endpointBit != 0 && tokenValidator != null
+                    && !tokenValidator.isAccessAllowed(endpointBit, request.buffer(), request.authTokenIndex(), request.authTokenLength())) {
+                logger.at(Level.FINE).log("Access denied for endpoint '%s' from %s", queryType.endpoint(), sender);
+                sendAuthRequiredResponse(ctx, request.requestId(), sender);
                 return;
             }
 
-            int requestId = V2RequestParser.getRequestId(content);
-            int offset = V2RequestParser.getOffset(content);
+            int requestId = request.requestId();
+            int offset = request.offset();
+            boolean networkMode = isNetworkMode();
+            // Read before any state, so the version tag sent back is never newer than the response.
+            long generation = StateGeneration.current();
 
             ByteBuf response;
 
-            if (isNetworkMode()) {
-                response = buildNetworkResponse(ctx, queryType, requestId, offset);
+            if (queryType == V2Protocol.QueryType.BASIC && request.hasVersionTag()
+                    && request.versionTag() == StateGeneration.versionTag(generation)) {
+                response = V2ResponseBuilder.buildNotModifiedResponse(ctx.alloc(), requestId,
+                        networkMode ? V2Protocol.FLAG_RESPONSE_IS_NETWORK : 0);
+            } else if (networkMode) {
+                response = buildNetworkResponse(ctx, queryType, requestId, offset, generation);
+            } else if (queryType == V2Protocol.QueryType.PLAYERS_DELTA) {
+                response = V2ResponseBuilder.buildPlayerDeltaResponse(ctx.alloc(), requestId, (short) 0,
+                        localChanges, offset, generation);
             } else {
                 response = queryType == V2Protocol.QueryType.PLAYERS
-                        ? V2ResponseBuilder.buildPlayersResponse(ctx.alloc(), requestId, offset)
-                        : V2ResponseBuilder.buildBasicResponse(ctx.alloc(), requestId, (short) 0);
+                        ? V2ResponseBuilder.buildPlayersResponse(ctx.alloc(), requestId, (short) 0, localPlayers, offset, generation)
+                        : responseCache.v2Basic(ctx.alloc(), requestId, (short) 0);
             }
 
-            ctx.writeAndFlush(new DatagramPacket(response, sender));
+            send(ctx, response, sender);
 
         } catch (Exception e) {
             logger.at(Level.WARNING).withCause(e).log("Failed to process v2 query from %s",
-                    request.sender());
+                    packet.sender());
         } finally {
-            request.release();
+            request.clear();
+            packet.release();
         }
     }
 
-    private void handleChallengeRequest(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket request) {
-        InetSocketAddress sender = request.sender();
-        byte[] token = challengeTokenGenerator.generateToken(sender.getAddress());
-        ByteBuf response = V2ResponseBuilder.buildChallengeResponse(ctx.alloc(), token);
-        ctx.writeAndFlush(new DatagramPacket(response, sender));
+    private void handleChallengeRequest(@Nonnull ChannelHandlerContext ctx, @Nonnull InetSocketAddress sender) {
+        ByteBuf response = V2ResponseBuilder.buildChallengeResponse(ctx.alloc(), challengeTokenGenerator, sender.getAddress());
+        send(ctx, response, sender);
         logger.at(Level.FINE).log("Sent challenge token to %s", sender);
     }
 
-    private void sendAuthRequiredResponse(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket request) {
-        int requestId = V2RequestParser.getRequestId(request.content());
-
-        ByteBuf response = V2ResponseBuilder.buildAuthRequiredResponse(ctx.alloc(), requestId);
-        ctx.writeAndFlush(new DatagramPacket(response, request.sender()));
+    private void sendAuthRequiredResponse(@Nonnull ChannelHandlerContext ctx, int requestId, @Nonnull InetSocketAddress sender) {
+        ByteBuf response = responseCache.v2Basic(ctx.alloc(), requestId, V2Protocol.FLAG_RESPONSE_AUTH_REQUIRED);
+        send(ctx, response, sender);
     }
 
     private void handleV1Query(@Nonnull ChannelHandlerContext ctx, @Nonnull DatagramPacket request) {
@@ -162,17 +320,16 @@ public class QueryHandler extends ChannelInboundHandlerAdapter {
 
             ByteBuf response;
             if (isNetworkMode()) {
-                NetworkSnapshot snapshot = networkModule.getNetworkSnapshotSync();
                 response = queryType == V1Protocol.TYPE_FULL
-                        ? V1ResponseBuilder.buildFullResponse(ctx.alloc(), snapshot)
-                        : V1ResponseBuilder.buildBasicResponse(ctx.alloc(), snapshot);
+                        ? responseCache.v1Full(ctx.alloc(), networkSnapshot)
+                        : responseCache.v1Basic(ctx.alloc(), networkSnapshot);
             } else {
                 response = queryType == V1Protocol.TYPE_FULL
-                        ? V1ResponseBuilder.buildFullResponse(ctx.alloc())
-                        : V1ResponseBuilder.buildBasicResponse(ctx.alloc());
+                        ? responseCache.v1Full(ctx.alloc(), localPlayers)
+                        : responseCache.v1Basic(ctx.alloc());
             }
 
-            ctx.writeAndFlush(new DatagramPacket(response, request.sender()));
+            send(ctx, response, request.sender());
 
         } catch (Exception e) {
             logger.at(Level.WARNING).withCause(e).log("Failed to process v1 query from %s",
@@ -182,6 +339,13 @@ public class QueryHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * Get the number of responses dropped because the channel was not writable.
+     */
+    public long getUnwritableDropCount() {
+        return unwritableDrops.sum();
+    }
+
     @Override
     public void exceptionCaught(@Nonnull ChannelHandlerContext ctx, @Nonnull Throwable cause) {
         logger.at(Level.WARNING).withCause(cause).log("Exception in query handler");
@@ -196,11 +360,25 @@ public class QueryHandler extends ChannelInboundHandlerAdapter {
     private ByteBuf buildNetworkResponse(@Nonnull ChannelHandlerContext ctx,
                                          @Nonnull V2Protocol.QueryType queryType,
                                          int requestId,
-                                         int offset) {
-        NetworkSnapshot snapshot = networkModule.getNetworkSnapshotSync();
+                                         int offset,
+                                         long generation) {
+        if (queryType == V2Protocol.QueryType.PLAYERS) {
+            PlayerListArena players = networkModule.getPlayerList();
+            return V2ResponseBuilder.buildPlayersResponse(ctx.alloc(), requestId, V2Protocol.FLAG_RESPONSE_IS_NETWORK,
+                    players != null ? players : localPlayers, offset, generation);
+        }
+        if (queryType == V2Protocol.QueryType.PLAYERS_DELTA) {
+            PlayerChangeLog changes = networkModule.getPlayerChanges();
+            return V2ResponseBuilder.buildPlayerDeltaResponse(ctx.alloc(), requestId, V2Protocol.FLAG_RESPONSE_IS_NETWORK,
+                    changes != null ? changes : localChanges, offset, generation);
+        }
+        return responseCache.v2Basic(ctx.alloc(), requestId, networkSnapshot);
+    }
 
-        return queryType == V2Protocol.QueryType.PLAYERS
-                ? V2ResponseBuilder.buildPlayersResponse(ctx.alloc(), requestId, snapshot, offset)
-                : V2ResponseBuilder.buildBasicResponse(ctx.alloc(), requestId, snapshot);
+    /**
+     * Response bytes written but not yet flushed on a channel. Only touched on its event loop.
+     */
+    private static final class PendingWrites {
+        int bytes;
     }
 }
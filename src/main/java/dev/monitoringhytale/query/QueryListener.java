@@ -0,0 +1,120 @@
+package dev.monitoringhytale.query;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.config.ListenerConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Dedicated UDP listener for queries, separate from the game's listeners.
+ *
+ * <p>With the native epoll transport, one socket per event loop is bound to the same port using
+ * SO_REUSEPORT, so the kernel spreads clients across cores. Each socket reads batches of
+ * datagrams with recvmmsg, and flushed replies are sent with sendmmsg. Without epoll a single
+ * NIO socket is bound.
+ */
+public final class QueryListener {
+
+    private static final String THREAD_NAME = "monitoringhytalequery-listener";
+    private static final int MAX_DATAGRAM_SIZE = 1500;
+    private static final int DATAGRAMS_PER_READ = 16;
+
+    @Nonnull
+    private final HytaleLogger logger;
+
+    @Nonnull
+    private final ListenerConfig config;
+
+    private final List<Channel> channels = new ArrayList<>();
+    private EventLoopGroup group;
+
+    public QueryListener(@Nonnull HytaleLogger logger, @Nonnull ListenerConfig config) {
+        this.logger = logger;
+        this.config = config;
+    }
+
+    /**
+     * Bind the sockets and start answering queries with {@code handler}, which must be sharable.
+     */
+    public void start(@Nonnull ChannelHandler handler) throws InterruptedException {
+        boolean epoll = isEpollAvailable();
+        int sockets = epoll ? config.getSockets() : 1;
+
+        Bootstrap bootstrap = epoll
+                ? NativeTransport.bootstrap(sockets)
+                : new Bootstrap().group(new NioEventLoopGroup(1, new DefaultThreadFactory(THREAD_NAME, true)))
+                        .channel(NioDatagramChannel.class);
+        this.group = bootstrap.config().group();
+
+        bootstrap.option(ChannelOption.SO_RCVBUF, 1 << 20)
+                .handler(handler);
+
+        try {
+            for (int i = 0; i < sockets; i++) {
+                channels.add(bootstrap.bind(config.getHost(), config.getPort()).sync().channel());
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            stop();
+            throw e;
+        }
+
+        logger.at(Level.INFO).log("Query listener bound to %s:%d (%d socket(s), %s transport)",
+                config.getHost(), config.getPort(), sockets, epoll ? "epoll" : "nio");
+    }
+
+    public void stop() {
+        for (Channel channel : channels) {
+            channel.close().awaitUninterruptibly();
+        }
+        channels.clear();
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).awaitUninterruptibly();
+            group = null;
+        }
+    }
+
+    private static boolean isEpollAvailable() {
+        try {
+            return Epoll.isAvailable();
+        } catch (LinkageError e) {
+            // The server may ship Netty without the native transport.
+            return false;
+        }
+    }
+
+    /**
+     * Kept apart so the epoll classes are only loaded once {@link Epoll#isAvailable()} said yes.
+     */
+    private static final class NativeTransport {
+
+        @Nonnull
+        static Bootstrap bootstrap(int sockets) {
+            return new Bootstrap()
+                    .group(new EpollEventLoopGroup(sockets, new DefaultThreadFactory(THREAD_NAME, true)))
+                    .channel(EpollDatagramChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, true)
+                    // A non-zero payload size switches reads to recvmmsg.
+                    .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, MAX_DATAGRAM_SIZE)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR,
+                            new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE * DATAGRAMS_PER_READ));
+        }
+    }
+}
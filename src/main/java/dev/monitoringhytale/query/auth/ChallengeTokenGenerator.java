@@ -1,52 +1,156 @@
 package dev.monitoringhytale.query.auth;
 
+import dev.monitoringhytale.query.config.ChallengeAlgorithm;
 import dev.monitoringhytale.query.util.CryptoUtils;
+import dev.monitoringhytale.query.util.SipHash;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
+import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Token format (32 bytes):
  * - Bytes 0-3:  Timestamp (30-second granularity, big-endian)
- * - Bytes 4-7:  Flags (reserved)
- * - Bytes 8-31: HMAC-SHA256 truncated to 24 bytes
+ * - Byte 4:     Algorithm ID ({@link ChallengeAlgorithm#id()})
+ * - Byte 5:     Key ID of the secret that signed the token
+ * - Bytes 6-7:  Reserved, zero
+ * - Bytes 8-31: MAC over timestamp || address. HMAC-SHA256 truncated to 24 bytes, or the
+ *               16-byte SipHash-2-4 tag followed by 8 zero bytes
+ *
+ * <p>New tokens are signed with the current key; any installed key validates. Servers that
+ * install the same secrets under the same IDs accept each other's tokens.
  */
 public final class ChallengeTokenGenerator {
 
     public static final int TOKEN_SIZE = 32;
     public static final int DEFAULT_SECRET_LENGTH = 32;
     public static final int DEFAULT_VALIDITY_SECONDS = 120;
+    public static final int DEFAULT_VERIFIED_CACHE_SIZE = 4096;
+    public static final int MAX_KEY_ID = 0xFF;
     private static final int TIMESTAMP_GRANULARITY_SECONDS = 30;
     private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_OFFSET = 8;
+    private static final int MAC_SIZE = 24;
+    private static final int KEY_ID_SHIFT = 16;
+    private static final int KEY_ID_MASK = MAX_KEY_ID << KEY_ID_SHIFT;
 
-    private final byte[] serverSecret;
-    private final SecretKeySpec secretKeySpec;
-    private final ThreadLocal<Mac> threadLocalMac;
+    private final ChallengeAlgorithm algorithm;
+    private final int algorithmFlags;
+    private final AtomicReferenceArray<Key> keys = new AtomicReferenceArray<>(MAX_KEY_ID + 1);
     private final int validityWindows;
+    private volatile Key currentKey;
+
+    @Nullable
+    private final VerifiedTokenCache verifiedTokens;
 
     public ChallengeTokenGenerator(@Nonnull byte[] serverSecret) {
         this(serverSecret, DEFAULT_VALIDITY_SECONDS);
     }
 
     public ChallengeTokenGenerator(@Nonnull byte[] serverSecret, int validitySeconds) {
-        this.serverSecret = serverSecret.clone();
-        this.secretKeySpec = new SecretKeySpec(this.serverSecret, HMAC_ALGORITHM);
-        this.threadLocalMac = ThreadLocal.withInitial(this::createMac);
+        this(serverSecret, ChallengeAlgorithm.HMAC_SHA256, validitySeconds, DEFAULT_VERIFIED_CACHE_SIZE);
+    }
+
+    /**
+     * @param serverSecret      Secret installed as key 0 and used until {@link #useKey(int)} selects another
+     * @param verifiedCacheSize Slots for recently verified tokens, or 0 to check the MAC on every query
+     */
+    public ChallengeTokenGenerator(@Nonnull byte[] serverSecret, @Nonnull ChallengeAlgorithm algorithm,
+                                   int validitySeconds, int verifiedCacheSize) {
+        this.algorithm = algorithm;
+        this.algorithmFlags = (algorithm.id() & 0xFF) << 24;
         this.validityWindows = Math.max(1, (validitySeconds + TIMESTAMP_GRANULARITY_SECONDS - 1) / TIMESTAMP_GRANULARITY_SECONDS);
+        this.verifiedTokens = verifiedCacheSize > 0 ? new VerifiedTokenCache(verifiedCacheSize) : null;
+
+        installKey(0, serverSecret);
+        useKey(0);
     }
 
     @Nonnull
-    private Mac createMac() {
+    public ChallengeAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Install {@code secret} under {@code keyId}, replacing any key with that ID. Tokens signed
+     * with it validate from now on; new tokens use it only once {@link #useKey(int)} selects it.
+     */
+    public void installKey(int keyId, @Nonnull byte[] secret) {
+        checkKeyId(keyId);
+        Key key = new Key(keyId, algorithmFlags | keyId << KEY_ID_SHIFT, createTokenMac(secret.clone()));
+        keys.set(keyId, key);
+        Key current = currentKey;
+        if (current != null && current.id() == keyId) {
+            currentKey = key;
+        }
+    }
+
+    /**
+     * Sign new tokens with the installed key {@code keyId}.
+     */
+    public void useKey(int keyId) {
+        checkKeyId(keyId);
+        Key key = keys.get(keyId);
+        if (key == null) {
+            throw new IllegalArgumentException("Challenge key " + keyId + " is not installed");
+        }
+        currentKey = key;
+    }
+
+    /**
+     * Stop accepting tokens signed with {@code keyId}. The current key can't be removed.
+     */
+    public void removeKey(int keyId) {
+        checkKeyId(keyId);
+        if (currentKey.id() == keyId) {
+            throw new IllegalArgumentException("Challenge key " + keyId + " is in use");
+        }
+        keys.set(keyId, null);
+    }
+
+    public boolean hasKey(int keyId) {
+        return keyId >= 0 && keyId <= MAX_KEY_ID && keys.get(keyId) != null;
+    }
+
+    public int getCurrentKeyId() {
+        return currentKey.id();
+    }
+
+    private static void checkKeyId(int keyId) {
+        if (keyId < 0 || keyId > MAX_KEY_ID) {
+            throw new IllegalArgumentException("Challenge key ID out of range: " + keyId);
+        }
+    }
+
+    @Nonnull
+    private ThreadLocal<TokenMac> createTokenMac(@Nonnull byte[] secret) {
+        SecretKeySpec keySpec = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        if (algorithm == ChallengeAlgorithm.SIPHASH_2_4) {
+            // Derive the SipHash key so the two algorithms never share key material.
+            byte[] key = createMac(keySpec).doFinal("challenge-siphash-2-4".getBytes(StandardCharsets.US_ASCII));
+            long k0 = SipHash.readLongLE(key, 0);
+            long k1 = SipHash.readLongLE(key, 8);
+            return ThreadLocal.withInitial(() -> new SipHashMac(k0, k1));
+        }
+        return ThreadLocal.withInitial(() -> new HmacMac(createMac(keySpec)));
+    }
+
+    @Nonnull
+    private static Mac createMac(@Nonnull SecretKeySpec keySpec) {
         try {
             Mac mac = Mac.getInstance(HMAC_ALGORITHM);
-            mac.init(secretKeySpec);
+            mac.init(keySpec);
             return mac;
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new RuntimeException("Failed to initialize HMAC", e);
@@ -55,57 +159,71 @@ public final class ChallengeTokenGenerator {
 
     @Nonnull
     public byte[] generateToken(@Nonnull InetAddress clientAddress) {
+        byte[] token = new byte[TOKEN_SIZE];
+        writeToken(Unpooled.wrappedBuffer(token).clear(), clientAddress);
+        return token;
+    }
+
+    /**
+     * Write a fresh {@link #TOKEN_SIZE}-byte token for {@code clientAddress} to {@code buf}.
+     */
+    public void writeToken(@Nonnull ByteBuf buf, @Nonnull InetAddress clientAddress) {
+        Key key = currentKey;
         int timestamp = getCurrentTimestamp();
-        return generateTokenForTimestamp(clientAddress, timestamp);
+        byte[] mac = key.mac().get().compute(timestamp, clientAddress);
+        buf.writeInt(timestamp);
+        buf.writeInt(key.flags());
+        buf.writeBytes(mac, 0, MAC_SIZE);
     }
 
     public boolean validateToken(@Nullable byte[] token, @Nonnull InetAddress clientAddress) {
         if (token == null || token.length != TOKEN_SIZE) {
             return false;
         }
+        return validateToken(Unpooled.wrappedBuffer(token), 0, clientAddress);
+    }
+
+    /**
+     * Validate the {@link #TOKEN_SIZE}-byte token starting at {@code index} without copying it.
+     */
+    public boolean validateToken(@Nonnull ByteBuf buf, int index, @Nonnull InetAddress clientAddress) {
+        if (index < 0 || index + TOKEN_SIZE > buf.writerIndex()) {
+            return false;
+        }
 
-        int tokenTimestamp = ByteBuffer.wrap(token, 0, 4).getInt();
+        int tokenTimestamp = buf.getInt(index);
+        int tokenFlags = buf.getInt(index + 4);
+        if ((tokenFlags & ~KEY_ID_MASK) != algorithmFlags) {
+            return false;
+        }
+        // Checked before the verified-token cache, so removing a key also retires its cached tokens.
+        Key key = keys.get((tokenFlags & KEY_ID_MASK) >>> KEY_ID_SHIFT);
+        if (key == null) {
+            return false;
+        }
 
         int currentTimestamp = getCurrentTimestamp();
         for (int i = 0; i < validityWindows; i++) {
             int expectedTimestamp = currentTimestamp - i;
             if (tokenTimestamp == expectedTimestamp) {
-                byte[] expectedToken = generateTokenForTimestamp(clientAddress, tokenTimestamp);
-                return CryptoUtils.constantTimeEquals(token, expectedToken);
+                if (verifiedTokens != null && verifiedTokens.contains(buf, index, tokenTimestamp, clientAddress)) {
+                    return true;
+                }
+                return verifyMac(key, buf, index, tokenTimestamp, clientAddress);
             }
         }
 
         return false;
     }
 
-    @Nonnull
-    private byte[] generateTokenForTimestamp(@Nonnull InetAddress clientAddress, int timestamp) {
-        byte[] token = new byte[TOKEN_SIZE];
-
-        token[0] = (byte) (timestamp >> 24);
-        token[1] = (byte) (timestamp >> 16);
-        token[2] = (byte) (timestamp >> 8);
-        token[3] = (byte) timestamp;
-        token[4] = 0;
-        token[5] = 0;
-        token[6] = 0;
-        token[7] = 0;
-
-        byte[] hmac = computeHmac(timestamp, clientAddress);
-        System.arraycopy(hmac, 0, token, 8, 24);
-
-        return token;
-    }
-
-    @Nonnull
-    private byte[] computeHmac(int timestamp, @Nonnull InetAddress clientAddress) {
-        Mac mac = threadLocalMac.get();
-
-        ByteBuffer input = ByteBuffer.allocate(4 + clientAddress.getAddress().length);
-        input.putInt(timestamp);
-        input.put(clientAddress.getAddress());
-
-        return mac.doFinal(input.array());
+    private boolean verifyMac(@Nonnull Key key, @Nonnull ByteBuf buf, int index, int timestamp,
+                              @Nonnull InetAddress clientAddress) {
+        byte[] mac = key.mac().get().compute(timestamp, clientAddress);
+        boolean valid = CryptoUtils.constantTimeEquals(buf, index + MAC_OFFSET, mac, 0, MAC_SIZE);
+        if (valid && verifiedTokens != null) {
+            verifiedTokens.put(buf, index, timestamp, clientAddress);
+        }
+        return valid;
     }
 
     private static int getCurrentTimestamp() {
@@ -123,4 +241,89 @@ public final class ChallengeTokenGenerator {
         new SecureRandom().nextBytes(secret);
         return secret;
     }
+
+    /**
+     * One installed secret: its ID, the token bytes 4-7 it signs with, and per-thread MAC state.
+     */
+    private record Key(int id, int flags, @Nonnull ThreadLocal<TokenMac> mac) {
+    }
+
+    /**
+     * Per-thread MAC state with reusable input and output arrays.
+     */
+    private abstract static class TokenMac {
+
+        final byte[] input = new byte[4 + 16];
+        final byte[] output = new byte[32];
+
+        /**
+         * MAC over timestamp || address into the first {@link #MAC_SIZE} bytes of the returned
+         * array. The result is only valid until the next call on this thread.
+         */
+        @Nonnull
+        final byte[] compute(int timestamp, @Nonnull InetAddress clientAddress) {
+            input[0] = (byte) (timestamp >> 24);
+            input[1] = (byte) (timestamp >> 16);
+            input[2] = (byte) (timestamp >> 8);
+            input[3] = (byte) timestamp;
+
+            int length;
+            if (clientAddress instanceof Inet4Address) {
+                // Inet4Address.hashCode() is the address itself, and unlike getAddress() doesn't copy.
+                int ip = clientAddress.hashCode();
+                input[4] = (byte) (ip >> 24);
+                input[5] = (byte) (ip >> 16);
+                input[6] = (byte) (ip >> 8);
+                input[7] = (byte) ip;
+                length = 8;
+            } else {
+                byte[] address = clientAddress.getAddress();
+                System.arraycopy(address, 0, input, 4, address.length);
+                length = 4 + address.length;
+            }
+
+            mac(length);
+            return output;
+        }
+
+        abstract void mac(int length);
+    }
+
+    private static final class HmacMac extends TokenMac {
+
+        private final Mac mac;
+
+        HmacMac(@Nonnull Mac mac) {
+            this.mac = mac;
+        }
+
+        @Override
+        void mac(int length) {
+            try {
+                mac.update(input, 0, length);
+                mac.doFinal(output, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the 16-byte tag; bytes 16-23 of the output are never written and stay zero.
+     */
+    private static final class SipHashMac extends TokenMac {
+
+        private final long k0;
+        private final long k1;
+
+        SipHashMac(long k0, long k1) {
+            this.k0 = k0;
+            this.k1 = k1;
+        }
+
+        @Override
+        void mac(int length) {
+            SipHash.hash128(k0, k1, input, 0, length, output, 0);
+        }
+    }
 }
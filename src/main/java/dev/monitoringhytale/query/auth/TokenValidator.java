@@ -2,47 +2,162 @@ package dev.monitoringhytale.query.auth;
 
 import dev.monitoringhytale.query.config.AuthConfig;
 import dev.monitoringhytale.query.config.Permissions;
+import dev.monitoringhytale.query.util.SipHash;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Map;
 
+/**
+ * Checks endpoint access for a request's auth token.
+ *
+ * <p>Tokens are read from the config once, when the validator is created, and stored only as
+ * 128-bit SipHash digests under a random per-process key, in an open-addressed table. A request's
+ * token is digested straight from the packet and looked up without allocating. Every probe
+ * compares the whole digest without an early exit, and where the token lands in the table
+ * depends on the secret key, so lookup timing says nothing about the configured tokens.
+ */
 public final class TokenValidator {
 
-    private final AuthConfig config;
+    private final int publicMask;
+    private final long k0;
+    private final long k1;
+    private final int maxTokenLength;
+
+    private final int mask;
+    private final long[] digests;
+    private final int[] entries;
+    private final int[] endpointMasks;
+    private final Permissions[] tokenPermissions;
+
+    private final ThreadLocal<Scratch> scratch;
 
     public TokenValidator(@Nonnull AuthConfig config) {
-        this.config = config;
+        this.publicMask = config.getPublicAccess().toMask();
+
+        SecureRandom random = new SecureRandom();
+        this.k0 = random.nextLong();
+        this.k1 = random.nextLong();
+
+        Map<String, Permissions> configured = config.getTokens();
+        int capacity = Integer.highestOneBit(Math.max(8, configured.size() * 2) - 1) << 1;
+        this.mask = capacity - 1;
+        this.digests = new long[capacity * 2];
+        this.entries = new int[capacity];
+        this.endpointMasks = new int[configured.size()];
+        this.tokenPermissions = new Permissions[configured.size()];
+
+        int longest = 0;
+        byte[] digest = new byte[SipHash.OUTPUT_SIZE];
+        int i = 0;
+        for (Map.Entry<String, Permissions> entry : configured.entrySet()) {
+            byte[] token = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            longest = Math.max(longest, token.length);
+            SipHash.hash128(k0, k1, token, 0, token.length, digest, 0);
+            insert(SipHash.readLongLE(digest, 0), SipHash.readLongLE(digest, 8), i);
+            endpointMasks[i] = entry.getValue().toMask();
+            tokenPermissions[i] = entry.getValue();
+            i++;
+        }
+        this.maxTokenLength = longest;
+        int scratchSize = longest;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(scratchSize));
     }
 
-    public boolean isAccessAllowed(@Nonnull String endpoint, @Nullable byte[] token) {
-        if (config.isPubliclyAccessible(endpoint)) {
-            return true;
+    private void insert(long h0, long h1, int index) {
+        int slot = (int) h0 & mask;
+        while (entries[slot] != 0) {
+            slot = (slot + 1) & mask;
         }
+        digests[slot * 2] = h0;
+        digests[slot * 2 + 1] = h1;
+        entries[slot] = index + 1;
+    }
 
-        if (token == null || token.length == 0) {
-            return false;
+    public boolean isAccessAllowed(@Nonnull String endpoint, @Nullable byte[] token) {
+        if (token == null) {
+            return isAccessAllowed(endpoint, Unpooled.EMPTY_BUFFER, 0, -1);
         }
+        return isAccessAllowed(endpoint, Unpooled.wrappedBuffer(token), 0, token.length);
+    }
 
-        Permissions permissions = getTokenPermissions(token);
-        if (permissions == null) {
-            return false;
+    public boolean isAccessAllowed(@Nonnull String endpoint, @Nonnull ByteBuf buf, int index, int length) {
+        return isAccessAllowed(Permissions.endpointBit(endpoint), buf, index, length);
+    }
+
+    /**
+     * Check access to an endpoint for the token at {@code buf[index, index + length)}.
+     *
+     * @param endpointBit One of the {@code Permissions.ENDPOINT_*} bits
+     * @param length      Token length, or -1 if the request carries no token
+     */
+    public boolean isAccessAllowed(int endpointBit, @Nonnull ByteBuf buf, int index, int length) {
+        if ((publicMask & endpointBit) != 0) {
+            return true;
         }
 
-        return permissions.isAllowed(endpoint);
+        int entry = lookup(buf, index, length);
+        return entry != 0 && (endpointMasks[entry - 1] & endpointBit) != 0;
     }
 
     public boolean isAuthRequired(@Nonnull String endpoint) {
-        return !config.isPubliclyAccessible(endpoint);
+        return (publicMask & Permissions.endpointBit(endpoint)) == 0;
     }
 
     @Nullable
     public Permissions getTokenPermissions(@Nullable byte[] token) {
-        if (token == null || token.length == 0) {
+        if (token == null) {
             return null;
         }
+        return getTokenPermissions(Unpooled.wrappedBuffer(token), 0, token.length);
+    }
+
+    @Nullable
+    public Permissions getTokenPermissions(@Nonnull ByteBuf buf, int index, int length) {
+        int entry = lookup(buf, index, length);
+        return entry != 0 ? tokenPermissions[entry - 1] : null;
+    }
+
+    /**
+     * @return The matching token's index plus one, or 0 if none matches
+     */
+    private int lookup(@Nonnull ByteBuf buf, int index, int length) {
+        if (length <= 0 || length > maxTokenLength) {
+            return 0;
+        }
+
+        Scratch s = scratch.get();
+        buf.getBytes(index, s.input, 0, length);
+        SipHash.hash128(k0, k1, s.input, 0, length, s.digest, 0);
+        long h0 = SipHash.readLongLE(s.digest, 0);
+        long h1 = SipHash.readLongLE(s.digest, 8);
 
-        String tokenString = new String(token, StandardCharsets.UTF_8);
-        return config.getToken(tokenString);
+        int slot = (int) h0 & mask;
+        int entry;
+        while ((entry = entries[slot]) != 0) {
+            long diff = (digests[slot * 2] ^ h0) | (digests[slot * 2 + 1] ^ h1);
+            if (diff == 0) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Per-thread buffers for digesting a request's token.
+     */
+    private static final class Scratch {
+
+        final byte[] input;
+        final byte[] digest = new byte[SipHash.OUTPUT_SIZE];
+
+        Scratch(int maxTokenLength) {
+            this.input = new byte[maxTokenLength];
+        }
     }
 }
@@ -0,0 +1,83 @@
+package dev.monitoringhytale.query.auth;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recently verified challenge tokens, so a client polling with the same token skips the MAC.
+ *
+ * <p>Each (address, timestamp window) has two candidate slots. An entry holds the address, the
+ * window and token bytes 4-31, and a hit requires all of them to match: exactly what a successful
+ * MAC check established, so the cache never accepts a token the MAC would reject. Entries are never removed
+ * explicitly: once their window leaves the validity range the timestamp check in front of the
+ * cache stops asking for them, and their slot is overwritten by newer tokens.
+ */
+final class VerifiedTokenCache {
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final int seed = ThreadLocalRandom.current().nextInt();
+
+    VerifiedTokenCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(16, size) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Whether the token at {@code index} was verified for this address and window before.
+     */
+    boolean contains(@Nonnull ByteBuf buf, int index, int timestamp, @Nonnull InetAddress address) {
+        int h = hash(timestamp, address);
+        return matches(slots.get(h & mask), buf, index, timestamp, address)
+                || matches(slots.get(Integer.rotateRight(h, 16) & mask), buf, index, timestamp, address);
+    }
+
+    /**
+     * Remember a verified token. Of its two candidate slots, the first is used unless it holds a
+     * token of the same or a newer window for another address.
+     */
+    void put(@Nonnull ByteBuf buf, int index, int timestamp, @Nonnull InetAddress address) {
+        int h = hash(timestamp, address);
+        int slot = h & mask;
+        Entry first = slots.get(slot);
+        if (first != null && first.timestamp >= timestamp && !first.address.equals(address)) {
+            slot = Integer.rotateRight(h, 16) & mask;
+        }
+        slots.set(slot, new Entry(address, timestamp,
+                buf.getInt(index + 4), buf.getLong(index + 8), buf.getLong(index + 16), buf.getLong(index + 24)));
+    }
+
+    private static boolean matches(Entry entry, @Nonnull ByteBuf buf, int index, int timestamp,
+                                   @Nonnull InetAddress address) {
+        return entry != null
+                && entry.timestamp == timestamp
+                && entry.matches(buf, index)
+                && entry.address.equals(address);
+    }
+
+    private int hash(int timestamp, @Nonnull InetAddress address) {
+        int h = (address.hashCode() ^ seed) * 0x9E3779B1 + timestamp;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private record Entry(@Nonnull InetAddress address, int timestamp, int flags, long mac0, long mac1, long mac2) {
+
+        boolean matches(@Nonnull ByteBuf buf, int index) {
+            // No early exit, so the comparison time doesn't depend on where the bytes differ.
+            long diff = (buf.getInt(index + 4) ^ flags)
+                    | (buf.getLong(index + 8) ^ mac0)
+                    | (buf.getLong(index + 16) ^ mac1)
+                    | (buf.getLong(index + 24) ^ mac2);
+            return diff == 0;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package dev.monitoringhytale.query.config;
+
+/**
+ * MAC used to sign challenge tokens. The ID is carried in token byte 4.
+ *
+ * <ul>
+ *   <li>{@link #HMAC_SHA256} - HMAC-SHA256 truncated to 24 bytes</li>
+ *   <li>{@link #SIPHASH_2_4} - SipHash-2-4 with a 128-bit tag, several times cheaper to issue and verify</li>
+ * </ul>
+ */
+public enum ChallengeAlgorithm {
+
+    HMAC_SHA256((byte) 0),
+
+    /**
+     * Tokens only have to be unforgeable for their validity window, which a 128-bit keyed tag covers.
+     */
+    SIPHASH_2_4((byte) 1);
+
+    private final byte id;
+
+    ChallengeAlgorithm(byte id) {
+        this.id = id;
+    }
+
+    public byte id() {
+        return id;
+    }
+}
@@ -0,0 +1,78 @@
+package dev.monitoringhytale.query.config;
+
+import com.hypixel.hytale.codec.Codec;
+import com.hypixel.hytale.codec.KeyedCodec;
+import com.hypixel.hytale.codec.builder.BuilderCodec;
+
+import javax.annotation.Nonnull;
+
+/**
+ * How challenge tokens are signed.
+ * With SharedSecret, all servers of a network sign with the same keys, fetched from the network
+ * store and rotated every KeyRotationMinutes, so any of them accepts the others' tokens.
+ *
+ * Example:
+ * {
+ *   "Challenge": {
+ *     "Algorithm": "SIPHASH_2_4",
+ *     "SharedSecret": true,
+ *     "KeyRotationMinutes": 60
+ *   }
+ * }
+ *
+ * @see ChallengeAlgorithm
+ */
+public class ChallengeConfig {
+
+    public static final BuilderCodec<ChallengeConfig> CODEC = BuilderCodec.builder(ChallengeConfig.class, ChallengeConfig::new)
+            .addField(new KeyedCodec<>("Algorithm", Codec.STRING),
+                    (o, v) -> o.algorithm = parseAlgorithm(v), o -> o.algorithm.name())
+            .addField(new KeyedCodec<>("SharedSecret", Codec.BOOLEAN),
+                    (o, v) -> o.sharedSecret = v, o -> o.sharedSecret)
+            .addField(new KeyedCodec<>("KeyRotationMinutes", Codec.INTEGER),
+                    (o, v) -> o.keyRotationMinutes = v, o -> o.keyRotationMinutes)
+            .build();
+
+    private ChallengeAlgorithm algorithm = ChallengeAlgorithm.HMAC_SHA256;
+    private boolean sharedSecret = false;
+    private int keyRotationMinutes = 60;
+
+    private static ChallengeAlgorithm parseAlgorithm(String value) {
+        if (value == null || value.isBlank()) {
+            return ChallengeAlgorithm.HMAC_SHA256;
+        }
+        try {
+            return ChallengeAlgorithm.valueOf(value.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            return ChallengeAlgorithm.HMAC_SHA256;
+        }
+    }
+
+    public ChallengeConfig() {
+    }
+
+    @Nonnull
+    public ChallengeAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(@Nonnull ChallengeAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public boolean isSharedSecret() {
+        return sharedSecret;
+    }
+
+    public void setSharedSecret(boolean sharedSecret) {
+        this.sharedSecret = sharedSecret;
+    }
+
+    public int getKeyRotationMinutes() {
+        return Math.max(5, Math.min(keyRotationMinutes, 1440));
+    }
+
+    public void setKeyRotationMinutes(int keyRotationMinutes) {
+        this.keyRotationMinutes = keyRotationMinutes;
+    }
+}
@@ -0,0 +1,98 @@
+package dev.monitoringhytale.query.config;
+
+import com.hypixel.hytale.codec.Codec;
+import com.hypixel.hytale.codec.KeyedCodec;
+import com.hypixel.hytale.codec.builder.BuilderCodec;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Optional dedicated UDP port for queries, in addition to (or instead of) the game port.
+ *
+ * <p>On Linux with Netty's native epoll transport, Sockets sockets are bound to the same port
+ * with SO_REUSEPORT, each on its own event loop, and the kernel spreads clients across them.
+ * Elsewhere a single socket is bound.
+ *
+ * Example:
+ * {
+ *   "Listener": {
+ *     "Enabled": true,
+ *     "Host": "0.0.0.0",
+ *     "Port": 5521,
+ *     "Sockets": 0,
+ *     "GamePort": true
+ *   }
+ * }
+ */
+public class ListenerConfig {
+
+    public static final BuilderCodec<ListenerConfig> CODEC = BuilderCodec.builder(ListenerConfig.class, ListenerConfig::new)
+            .addField(new KeyedCodec<>("Enabled", Codec.BOOLEAN),
+                    (o, v) -> o.enabled = v, o -> o.enabled)
+            .addField(new KeyedCodec<>("Host", Codec.STRING),
+                    (o, v) -> o.host = v, o -> o.host)
+            .addField(new KeyedCodec<>("Port", Codec.INTEGER),
+                    (o, v) -> o.port = v, o -> o.port)
+            .addField(new KeyedCodec<>("Sockets", Codec.INTEGER),
+                    (o, v) -> o.sockets = v, o -> o.sockets)
+            .addField(new KeyedCodec<>("GamePort", Codec.BOOLEAN),
+                    (o, v) -> o.gamePort = v, o -> o.gamePort)
+            .build();
+
+    private boolean enabled = false;
+    private String host = "0.0.0.0";
+    private int port = 5521;
+    private int sockets = 0;
+    private boolean gamePort = true;
+
+    public ListenerConfig() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Nonnull
+    public String getHost() {
+        return host != null && !host.isBlank() ? host : "0.0.0.0";
+    }
+
+    public void setHost(@Nonnull String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return Math.max(1, Math.min(port, 65535));
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Number of sockets to bind; 0 means one per available processor.
+     */
+    public int getSockets() {
+        int count = sockets > 0 ? sockets : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(count, 64));
+    }
+
+    public void setSockets(int sockets) {
+        this.sockets = sockets;
+    }
+
+    /**
+     * Whether queries are still answered on the game port too.
+     */
+    public boolean isGamePort() {
+        return gamePort;
+    }
+
+    public void setGamePort(boolean gamePort) {
+        this.gamePort = gamePort;
+    }
+}
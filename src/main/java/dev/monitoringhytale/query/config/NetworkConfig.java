@@ -310,10 +310,13 @@ public class NetworkConfig {
                         (o, v) -> o.heartbeatIntervalSeconds = v, o -> o.heartbeatIntervalSeconds)
                 .addField(new KeyedCodec<>("CacheRefreshSeconds", Codec.INTEGER),
                         (o, v) -> o.cacheRefreshSeconds = v, o -> o.cacheRefreshSeconds)
+                .addField(new KeyedCodec<>("MaxCacheRefreshSeconds", Codec.INTEGER),
+                        (o, v) -> o.maxCacheRefreshSeconds = v, o -> o.maxCacheRefreshSeconds)
                 .build();
 
         private int heartbeatIntervalSeconds = 15;
         private int cacheRefreshSeconds = 60;
+        private int maxCacheRefreshSeconds = 600;
 
         public TimingConfig() {
         }
@@ -341,5 +344,21 @@ public class NetworkConfig {
         public long getCacheRefreshMillis() {
             return getCacheRefreshSeconds() * 1000L;
         }
+
+        /**
+         * Get the longest interval between full refreshes, reached while the events stream has
+         * no gaps.
+         */
+        public int getMaxCacheRefreshSeconds() {
+            return Math.max(getCacheRefreshSeconds(), Math.min(maxCacheRefreshSeconds, 3600));
+        }
+
+        public void setMaxCacheRefreshSeconds(int seconds) {
+            this.maxCacheRefreshSeconds = seconds;
+        }
+
+        public long getMaxCacheRefreshMillis() {
+            return getMaxCacheRefreshSeconds() * 1000L;
+        }
     }
 }
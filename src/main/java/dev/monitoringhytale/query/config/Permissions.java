@@ -10,6 +10,9 @@ import com.hypixel.hytale.codec.builder.BuilderCodec;
  */
 public class Permissions {
 
+    public static final int ENDPOINT_BASIC = 1;
+    public static final int ENDPOINT_PLAYERS = 1 << 1;
+
     public static final BuilderCodec<Permissions> CODEC = BuilderCodec.builder(Permissions.class, Permissions::new)
             .addField(new KeyedCodec<>("Basic", Codec.BOOLEAN),
                     (o, v) -> o.basic = v, o -> o.basic)
@@ -51,10 +54,33 @@ public class Permissions {
      * @return true if access is allowed
      */
     public boolean isAllowed(String endpoint) {
+        return isAllowed(endpointBit(endpoint));
+    }
+
+    /**
+     * Check if access is allowed for an endpoint bit ({@link #ENDPOINT_BASIC} or {@link #ENDPOINT_PLAYERS}).
+     */
+    public boolean isAllowed(int endpointBit) {
+        return (toMask() & endpointBit) != 0;
+    }
+
+    /**
+     * The allowed endpoints as a bitmask of {@code ENDPOINT_*} bits.
+     */
+    public int toMask() {
+        return (basic ? ENDPOINT_BASIC : 0) | (players ? ENDPOINT_PLAYERS : 0);
+    }
+
+    /**
+     * The bit for an endpoint name, or 0 if unknown.
+     *
+     * @param endpoint "basic" or "players"
+     */
+    public static int endpointBit(String endpoint) {
         return switch (endpoint.toLowerCase()) {
-            case "basic" -> basic;
-            case "players" -> players;
-            default -> false;
+            case "basic" -> ENDPOINT_BASIC;
+            case "players" -> ENDPOINT_PLAYERS;
+            default -> 0;
         };
     }
 
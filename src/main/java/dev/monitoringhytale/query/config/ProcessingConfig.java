@@ -0,0 +1,98 @@
+package dev.monitoringhytale.query.config;
+
+import com.hypixel.hytale.codec.Codec;
+import com.hypixel.hytale.codec.KeyedCodec;
+import com.hypixel.hytale.codec.builder.BuilderCodec;
+
+/**
+ * Where query datagrams are processed and how responses are flushed.
+ * When Offload is false, queries are answered on the game server's I/O thread.
+ * CoalesceWrites (opt-in) flushes the responses to one read batch together, up to MaxPendingBytes.
+ *
+ * Example:
+ * {
+ *   "Processing": {
+ *     "Offload": true,
+ *     "Threads": 2,
+ *     "VirtualThreads": false,
+ *     "QueueCapacity": 1024,
+ *     "CoalesceWrites": true,
+ *     "MaxPendingBytes": 65536
+ *   }
+ * }
+ */
+public class ProcessingConfig {
+
+    public static final BuilderCodec<ProcessingConfig> CODEC = BuilderCodec.builder(ProcessingConfig.class, ProcessingConfig::new)
+            .addField(new KeyedCodec<>("Offload", Codec.BOOLEAN),
+                    (o, v) -> o.offload = v, o -> o.offload)
+            .addField(new KeyedCodec<>("Threads", Codec.INTEGER),
+                    (o, v) -> o.threads = v, o -> o.threads)
+            .addField(new KeyedCodec<>("VirtualThreads", Codec.BOOLEAN),
+                    (o, v) -> o.virtualThreads = v, o -> o.virtualThreads)
+            .addField(new KeyedCodec<>("QueueCapacity", Codec.INTEGER),
+                    (o, v) -> o.queueCapacity = v, o -> o.queueCapacity)
+            .addField(new KeyedCodec<>("CoalesceWrites", Codec.BOOLEAN),
+                    (o, v) -> o.coalesceWrites = v, o -> o.coalesceWrites)
+            .addField(new KeyedCodec<>("MaxPendingBytes", Codec.INTEGER),
+                    (o, v) -> o.maxPendingBytes = v, o -> o.maxPendingBytes)
+            .build();
+
+    private boolean offload = false;
+    private int threads = 2;
+    private boolean virtualThreads = false;
+    private int queueCapacity = 1024;
+    private boolean coalesceWrites = false;
+    private int maxPendingBytes = 65536;
+
+    public ProcessingConfig() {
+    }
+
+    public boolean isOffload() {
+        return offload;
+    }
+
+    public void setOffload(boolean offload) {
+        this.offload = offload;
+    }
+
+    public int getThreads() {
+        return Math.max(1, Math.min(threads, 64));
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getQueueCapacity() {
+        return Math.max(16, Math.min(queueCapacity, 65536));
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public boolean isCoalesceWrites() {
+        return coalesceWrites;
+    }
+
+    public void setCoalesceWrites(boolean coalesceWrites) {
+        this.coalesceWrites = coalesceWrites;
+    }
+
+    public int getMaxPendingBytes() {
+        return Math.max(1500, Math.min(maxPendingBytes, 1 << 20));
+    }
+
+    public void setMaxPendingBytes(int maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+}
@@ -50,6 +50,18 @@ public class QueryConfig {
             .addField(new KeyedCodec<>("ServerInfo", ServerInfoConfig.CODEC),
                     (o, v) -> o.serverInfo = v != null ? v : new ServerInfoConfig(),
                     o -> o.serverInfo)
+            .addField(new KeyedCodec<>("Processing", ProcessingConfig.CODEC),
+                    (o, v) -> o.processing = v != null ? v : new ProcessingConfig(),
+                    o -> o.processing)
+            .addField(new KeyedCodec<>("RateLimit", RateLimitConfig.CODEC),
+                    (o, v) -> o.rateLimit = v != null ? v : new RateLimitConfig(),
+                    o -> o.rateLimit)
+            .addField(new KeyedCodec<>("Listener", ListenerConfig.CODEC),
+                    (o, v) -> o.listener = v != null ? v : new ListenerConfig(),
+                    o -> o.listener)
+            .addField(new KeyedCodec<>("Challenge", ChallengeConfig.CODEC),
+                    (o, v) -> o.challenge = v != null ? v : new ChallengeConfig(),
+                    o -> o.challenge)
             .build();
 
     private boolean enabled = true;
@@ -58,6 +70,10 @@ public class QueryConfig {
     private AuthConfig authentication = new AuthConfig();
     private NetworkConfig network = new NetworkConfig();
     private ServerInfoConfig serverInfo = new ServerInfoConfig();
+    private ProcessingConfig processing = new ProcessingConfig();
+    private RateLimitConfig rateLimit = new RateLimitConfig();
+    private ListenerConfig listener = new ListenerConfig();
+    private ChallengeConfig challenge = new ChallengeConfig();
 
     public QueryConfig() {
     }
@@ -113,4 +129,40 @@ public class QueryConfig {
     public void setServerInfo(@Nonnull ServerInfoConfig serverInfo) {
         this.serverInfo = serverInfo;
     }
+
+    @Nonnull
+    public ProcessingConfig getProcessing() {
+        return processing;
+    }
+
+    public void setProcessing(@Nonnull ProcessingConfig processing) {
+        this.processing = processing;
+    }
+
+    @Nonnull
+    public RateLimitConfig getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(@Nonnull RateLimitConfig rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    @Nonnull
+    public ListenerConfig getListener() {
+        return listener;
+    }
+
+    public void setListener(@Nonnull ListenerConfig listener) {
+        this.listener = listener;
+    }
+
+    @Nonnull
+    public ChallengeConfig getChallenge() {
+        return challenge;
+    }
+
+    public void setChallenge(@Nonnull ChallengeConfig challenge) {
+        this.challenge = challenge;
+    }
 }
@@ -0,0 +1,151 @@
+package dev.monitoringhytale.query.config;
+
+import com.hypixel.hytale.codec.Codec;
+import com.hypixel.hytale.codec.KeyedCodec;
+import com.hypixel.hytale.codec.builder.BuilderCodec;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Per-source rate limits, checked before any query is processed.
+ *
+ * <p>Each address gets its own bucket per query type. Addresses in the same /24 (IPv4) or /64
+ * (IPv6) also share a bucket whose rate and burst are PrefixMultiplier times larger.
+ * Off by default, as clients behind a shared NAT or in one cloud range share those buckets.
+ *
+ * Example:
+ * {
+ *   "RateLimit": {
+ *     "Enabled": true,
+ *     "Challenge": { "PerSecond": 5, "Burst": 10 },
+ *     "Basic": { "PerSecond": 10, "Burst": 20 },
+ *     "Players": { "PerSecond": 20, "Burst": 100 },
+ *     "Legacy": { "PerSecond": 5, "Burst": 10 },
+ *     "PrefixMultiplier": 8,
+ *     "TableSize": 16384
+ *   }
+ * }
+ */
+public class RateLimitConfig {
+
+    public static final BuilderCodec<RateLimitConfig> CODEC = BuilderCodec.builder(RateLimitConfig.class, RateLimitConfig::new)
+            .addField(new KeyedCodec<>("Enabled", Codec.BOOLEAN),
+                    (o, v) -> o.enabled = v, o -> o.enabled)
+            .addField(new KeyedCodec<>("Challenge", Rate.CODEC),
+                    (o, v) -> o.challenge = v != null ? v : new Rate(5, 10),
+                    o -> o.challenge)
+            .addField(new KeyedCodec<>("Basic", Rate.CODEC),
+                    (o, v) -> o.basic = v != null ? v : new Rate(10, 20),
+                    o -> o.basic)
+            .addField(new KeyedCodec<>("Players", Rate.CODEC),
+                    (o, v) -> o.players = v != null ? v : new Rate(20, 100),
+                    o -> o.players)
+            .addField(new KeyedCodec<>("Legacy", Rate.CODEC),
+                    (o, v) -> o.legacy = v != null ? v : new Rate(5, 10),
+                    o -> o.legacy)
+            .addField(new KeyedCodec<>("PrefixMultiplier", Codec.INTEGER),
+                    (o, v) -> o.prefixMultiplier = v, o -> o.prefixMultiplier)
+            .addField(new KeyedCodec<>("TableSize", Codec.INTEGER),
+                    (o, v) -> o.tableSize = v, o -> o.tableSize)
+            .build();
+
+    private boolean enabled = false;
+    private Rate challenge = new Rate(5, 10);
+    private Rate basic = new Rate(10, 20);
+    private Rate players = new Rate(20, 100);
+    private Rate legacy = new Rate(5, 10);
+    private int prefixMultiplier = 8;
+    private int tableSize = 16384;
+
+    public RateLimitConfig() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Nonnull
+    public Rate getChallenge() {
+        return challenge;
+    }
+
+    @Nonnull
+    public Rate getBasic() {
+        return basic;
+    }
+
+    @Nonnull
+    public Rate getPlayers() {
+        return players;
+    }
+
+    @Nonnull
+    public Rate getLegacy() {
+        return legacy;
+    }
+
+    public int getPrefixMultiplier() {
+        return Math.max(1, Math.min(prefixMultiplier, 1024));
+    }
+
+    public void setPrefixMultiplier(int prefixMultiplier) {
+        this.prefixMultiplier = prefixMultiplier;
+    }
+
+    /**
+     * Number of bucket slots, rounded up to a power of two. Memory use is 8 bytes per slot.
+     */
+    public int getTableSize() {
+        int size = Math.max(1024, Math.min(tableSize, 1 << 22));
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    public void setTableSize(int tableSize) {
+        this.tableSize = tableSize;
+    }
+
+    /**
+     * Sustained rate and burst size for one query type.
+     */
+    public static class Rate {
+
+        public static final BuilderCodec<Rate> CODEC = BuilderCodec.builder(Rate.class, Rate::new)
+                .addField(new KeyedCodec<>("PerSecond", Codec.INTEGER),
+                        (o, v) -> o.perSecond = v, o -> o.perSecond)
+                .addField(new KeyedCodec<>("Burst", Codec.INTEGER),
+                        (o, v) -> o.burst = v, o -> o.burst)
+                .build();
+
+        private int perSecond;
+        private int burst;
+
+        public Rate() {
+            this(10, 20);
+        }
+
+        public Rate(int perSecond, int burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+
+        public int getPerSecond() {
+            return Math.max(1, Math.min(perSecond, 1_000_000));
+        }
+
+        public void setPerSecond(int perSecond) {
+            this.perSecond = perSecond;
+        }
+
+        public int getBurst() {
+            return Math.max(1, Math.min(burst, 100_000));
+        }
+
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+    }
+}
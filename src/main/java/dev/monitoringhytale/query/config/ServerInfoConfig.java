@@ -9,6 +9,7 @@ import javax.annotation.Nullable;
 /**
  * Optional overrides for server info returned in query responses.
  * When a field is null, the actual server value is used.
+ * Server values are re-read every RefreshIntervalSeconds, not on each query.
  *
  * Example:
  * {
@@ -17,7 +18,8 @@ import javax.annotation.Nullable;
  *     "Motd": "Welcome to my server!",
  *     "Host": "play.example.com",
  *     "Port": 25565,
- *     "MaxPlayers": 1000
+ *     "MaxPlayers": 1000,
+ *     "RefreshIntervalSeconds": 5
  *   }
  * }
  */
@@ -34,6 +36,8 @@ public class ServerInfoConfig {
                     (o, v) -> o.port = v, o -> o.port)
             .addField(new KeyedCodec<>("MaxPlayers", Codec.INTEGER),
                     (o, v) -> o.maxPlayers = v, o -> o.maxPlayers)
+            .addField(new KeyedCodec<>("RefreshIntervalSeconds", Codec.INTEGER),
+                    (o, v) -> o.refreshIntervalSeconds = v, o -> o.refreshIntervalSeconds)
             .build();
 
     private String serverName = null;
@@ -41,6 +45,7 @@ public class ServerInfoConfig {
     private String host = null;
     private Integer port = null;
     private Integer maxPlayers = null;
+    private int refreshIntervalSeconds = 5;
 
     public ServerInfoConfig() {
     }
@@ -90,6 +95,14 @@ public class ServerInfoConfig {
         this.maxPlayers = maxPlayers;
     }
 
+    public int getRefreshIntervalSeconds() {
+        return Math.max(1, Math.min(refreshIntervalSeconds, 300));
+    }
+
+    public void setRefreshIntervalSeconds(int refreshIntervalSeconds) {
+        this.refreshIntervalSeconds = refreshIntervalSeconds;
+    }
+
     public boolean hasOverrides() {
         return getServerName() != null || getMotd() != null || getHost() != null || port != null || maxPlayers != null;
     }
@@ -11,6 +11,8 @@ import dev.monitoringhytale.query.network.model.ServerState;
 import dev.monitoringhytale.query.network.store.NetworkStateStore;
 import dev.monitoringhytale.query.network.store.RedisStateStore;
 import dev.monitoringhytale.query.protocol.ServerDataProvider;
+import dev.monitoringhytale.query.protocol.v2.PlayerChangeLog;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -163,6 +165,26 @@ public class NetworkModule {
         return NetworkSnapshot.empty();
     }
 
+    /**
+     * Get the change log behind {@link #getNetworkSnapshotSync()}'s players, or null if the
+     * snapshot only holds this server's players.
+     */
+    @Nullable
+    public PlayerChangeLog getPlayerChanges() {
+        LocalStateCache cache = getSubscriberCache();
+        return cache != null ? cache.getChanges() : null;
+    }
+
+    /**
+     * Get the pre-encoded list of {@link #getNetworkSnapshotSync()}'s players, or null if the
+     * snapshot only holds this server's players.
+     */
+    @Nullable
+    public PlayerListArena getPlayerList() {
+        LocalStateCache cache = getSubscriberCache();
+        return cache != null ? cache.getPlayerList() : null;
+    }
+
     @Nonnull
     public CompletableFuture<List<PlayerInfo>> getAllPlayers() {
         if (!isEnabled()) {
@@ -188,6 +210,14 @@ public class NetworkModule {
         return cache != null ? cache.getPlayers() : getLocalPlayers();
     }
 
+    @Nonnull
+    public CompletableFuture<byte[]> getOrCreateChallengeSecret(long epoch, @Nonnull byte[] proposed, int ttlSeconds) {
+        if (!isEnabled()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Network module not started"));
+        }
+        return store.getOrCreateChallengeSecret(epoch, proposed, ttlSeconds);
+    }
+
     public void subscribe(@Nonnull Consumer<NetworkEvent> listener) {
         if (isEnabled()) {
             store.subscribe(listener);
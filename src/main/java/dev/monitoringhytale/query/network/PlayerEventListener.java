@@ -3,18 +3,33 @@ package dev.monitoringhytale.query.network;
 import com.hypixel.hytale.server.core.event.events.player.PlayerConnectEvent;
 import com.hypixel.hytale.server.core.event.events.player.PlayerDisconnectEvent;
 import com.hypixel.hytale.server.core.universe.PlayerRef;
+import dev.monitoringhytale.query.protocol.ServerDataProvider;
+import dev.monitoringhytale.query.protocol.v2.PlayerChangeLog;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.UUID;
 
 /**
- * Listens for player connect/disconnect events and updates the network state.
+ * Listens for player connect/disconnect events, keeps the local player list, its change log and
+ * cached responses up to date, and updates the network state when network mode is enabled.
  */
 public class PlayerEventListener {
 
+    @Nonnull
+    private final PlayerListArena localPlayers;
+
+    @Nonnull
+    private final PlayerChangeLog localChanges;
+
+    @Nullable
     private final NetworkModule networkModule;
 
-    public PlayerEventListener(@Nonnull NetworkModule networkModule) {
+    public PlayerEventListener(@Nonnull PlayerListArena localPlayers, @Nonnull PlayerChangeLog localChanges,
+                               @Nullable NetworkModule networkModule) {
+        this.localPlayers = localPlayers;
+        this.localChanges = localChanges;
         this.networkModule = networkModule;
     }
 
@@ -22,14 +37,18 @@ public class PlayerEventListener {
      * Handle a player connecting to the server.
      */
     public void onPlayerConnect(@Nonnull PlayerConnectEvent event) {
-        if (!networkModule.isEnabled()) {
-            return;
-        }
-
         PlayerRef playerRef = event.getPlayerRef();
         UUID uuid = playerRef.getUuid();
         String username = playerRef.getUsername();
 
+        localPlayers.add(uuid, username);
+        localChanges.join(uuid, username);
+        ServerDataProvider.setPlayerCount(localPlayers.size());
+
+        if (networkModule == null || !networkModule.isEnabled()) {
+            return;
+        }
+
         networkModule.onPlayerJoin(uuid, username);
     }
 
@@ -37,13 +56,17 @@ public class PlayerEventListener {
      * Handle a player disconnecting from the server.
      */
     public void onPlayerDisconnect(@Nonnull PlayerDisconnectEvent event) {
-        if (!networkModule.isEnabled()) {
-            return;
-        }
-
         PlayerRef playerRef = event.getPlayerRef();
         UUID uuid = playerRef.getUuid();
 
+        localPlayers.remove(uuid);
+        localChanges.leave(uuid);
+        ServerDataProvider.setPlayerCount(localPlayers.size());
+
+        if (networkModule == null || !networkModule.isEnabled()) {
+            return;
+        }
+
         networkModule.onPlayerLeave(uuid);
     }
 }
@@ -0,0 +1,135 @@
+package dev.monitoringhytale.query.network;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps the challenge token keys in step with the other servers of the network, so a token
+ * handed out by one server is accepted by any other behind the same anycast or load-balanced address.
+ *
+ * <p>Time is split into rotation periods (epochs). The first server to ask for an epoch's secret
+ * stores it in the network store and every other server reads the same one back; its key ID is
+ * the epoch's low byte. Tokens are signed with the current epoch's key, the next epoch's key is
+ * fetched ahead of time and the previous one is kept, so tokens stay valid across a rotation even
+ * when server clocks differ slightly. If the store is unreachable the last key in use stays in use.
+ */
+public final class SharedChallengeKeys {
+
+    private static final long SYNC_INTERVAL_SECONDS = 15;
+    private static final long FETCH_TIMEOUT_SECONDS = 5;
+    private static final int LOCAL_KEY_ID = 0;
+
+    private final HytaleLogger logger;
+    private final NetworkModule networkModule;
+    private final ChallengeTokenGenerator generator;
+    private final long periodMillis;
+    private final int ttlSeconds;
+
+    // Only touched by start() and then the scheduler thread.
+    private final TreeSet<Long> installedEpochs = new TreeSet<>();
+    private boolean localKeyInstalled = true;
+
+    private ScheduledExecutorService scheduler;
+
+    public SharedChallengeKeys(@Nonnull HytaleLogger logger,
+                               @Nonnull NetworkModule networkModule,
+                               @Nonnull ChallengeTokenGenerator generator,
+                               int rotationMinutes) {
+        this.logger = logger;
+        this.networkModule = networkModule;
+        this.generator = generator;
+        this.periodMillis = TimeUnit.MINUTES.toMillis(rotationMinutes);
+        this.ttlSeconds = (int) TimeUnit.MINUTES.toSeconds(rotationMinutes * 3L);
+    }
+
+    /**
+     * Fetch the current keys before returning, then keep them up to date in the background.
+     */
+    public void start() {
+        sync();
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "monitoringhytalequery-challenge-keys");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sync();
+            } catch (Exception e) {
+                logger.at(Level.WARNING).withCause(e).log("Failed to sync challenge keys");
+            }
+        }, SYNC_INTERVAL_SECONDS, SYNC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (scheduler == null) {
+            return;
+        }
+
+        scheduler.shutdownNow();
+        this.scheduler = null;
+    }
+
+    private void sync() {
+        long epoch = System.currentTimeMillis() / periodMillis;
+
+        for (long e = epoch; e <= epoch + 1; e++) {
+            if (!installedEpochs.contains(e)) {
+                fetch(e);
+            }
+        }
+
+        if (installedEpochs.contains(epoch)) {
+            int keyId = keyId(epoch);
+            if (generator.getCurrentKeyId() != keyId || localKeyInstalled) {
+                generator.useKey(keyId);
+                logger.at(Level.FINE).log("Signing challenge tokens with shared key %d (epoch %d)", keyId, epoch);
+            }
+            if (localKeyInstalled) {
+                // The random per-process key was only a fallback until the shared keys arrived.
+                if (installedEpochs.stream().noneMatch(e -> keyId(e) == LOCAL_KEY_ID)) {
+                    generator.removeKey(LOCAL_KEY_ID);
+                }
+                localKeyInstalled = false;
+            }
+        }
+
+        Iterator<Long> it = installedEpochs.iterator();
+        while (it.hasNext()) {
+            long e = it.next();
+            if (e >= epoch - 1) {
+                break;
+            }
+            if (generator.getCurrentKeyId() != keyId(e)) {
+                generator.removeKey(keyId(e));
+                it.remove();
+            }
+        }
+    }
+
+    private void fetch(long epoch) {
+        try {
+            byte[] secret = networkModule.getOrCreateChallengeSecret(epoch, ChallengeTokenGenerator.generateSecret(), ttlSeconds)
+                    .get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            generator.installKey(keyId(epoch), secret);
+            installedEpochs.add(epoch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.at(Level.WARNING).log("Failed to fetch shared challenge key for epoch %d: %s", epoch, e.getMessage());
+        }
+    }
+
+    private static int keyId(long epoch) {
+        return (int) (epoch & ChallengeTokenGenerator.MAX_KEY_ID);
+    }
+}
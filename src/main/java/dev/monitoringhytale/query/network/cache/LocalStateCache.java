@@ -1,233 +1,373 @@
 package dev.monitoringhytale.query.network.cache;
 
 import dev.monitoringhytale.query.network.NetworkModule;
+import dev.monitoringhytale.query.network.model.NetworkEvent;
 import dev.monitoringhytale.query.network.model.NetworkSnapshot;
 import dev.monitoringhytale.query.network.model.PlayerInfo;
 import dev.monitoringhytale.query.network.model.ServerState;
+import dev.monitoringhytale.query.protocol.StateGeneration;
+import dev.monitoringhytale.query.protocol.v2.PlayerChangeLog;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local view of the network state, fed by stream events and periodic refreshes.
+ *
+ * <p>Writers serialize on a lock and publish an immutable {@link NetworkSnapshot} through a
+ * volatile reference once their changes are applied. Readers never lock or copy: they either
+ * read the published snapshot or do point lookups in the concurrent maps. The snapshot's lists
+ * share every chunk left unchanged with the previous one (see {@link SnapshotTable}), so a
+ * publish costs the changes rather than the size of the network.
+ *
+ * <p>Use {@link #batch(Runnable)} to apply several updates and publish a single snapshot; a
+ * refresh publishes once however much it corrects.
+ *
+ * <p>Every player added, renamed or removed, whatever the cause, is also recorded in a
+ * {@link PlayerChangeLog} and applied to a {@link PlayerListArena}, so delta and PLAYERS queries
+ * stay in step with the snapshot without re-encoding the list.
+ *
+ * <p>Events and refreshes carry versions from one increasing sequence, such as the position of
+ * the event in the stream. A refresh at version {@code v} reflects every event up to {@code v},
+ * so events at or below the last refreshed version are ignored, and entries changed by a later
+ * event are kept over what the refresh read. Only entries changed since the last refresh keep a
+ * version, including those removed, so the bookkeeping grows with the changes, not the network.
+ *
+ * <p>A refresh may read changes whose events have not arrived yet, and reports them as missed.
+ * When those events do arrive they find the player already listed or already gone, and are
+ * ignored, so each join and leave is reported once.
+ */
 public class LocalStateCache {
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
 
-    private final HashMap<String, ServerState> servers = new HashMap<>();
-    private final HashMap<UUID, PlayerInfo> players = new HashMap<>();
+    private final SnapshotTable<String, ServerState> servers = new SnapshotTable<>();
+    private final SnapshotTable<UUID, PlayerInfo> players = new SnapshotTable<>();
     private final HashMap<UUID, String> playerToServer = new HashMap<>();
+    private final HashMap<String, Set<UUID>> serverPlayers = new HashMap<>();
+    private final HashMap<UUID, Long> playerVersions = new HashMap<>();
+    private final HashMap<String, Long> serverVersions = new HashMap<>();
+    private final PlayerChangeLog changes = new PlayerChangeLog();
+    private final PlayerListArena playerList = new PlayerListArena();
+
+    private volatile NetworkSnapshot snapshot = NetworkSnapshot.empty();
+    private volatile long lastRefreshTime = 0;
+    private volatile long serverTimeoutMillis = NetworkModule.SERVER_TIMEOUT_MILLIS;
+    private volatile long refreshedVersion = 0;
 
-    private long lastRefreshTime = 0;
-    private long serverTimeoutMillis = NetworkModule.SERVER_TIMEOUT_MILLIS;
+    private int batchDepth = 0;
+    private boolean dirty = false;
+    private boolean playersDirty = false;
 
     public LocalStateCache() {
     }
 
     public void setServerTimeout(long timeoutMillis) {
-        lock.writeLock().lock();
+        this.serverTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Apply several updates and publish one snapshot at the end.
+     */
+    public void batch(@Nonnull Runnable updates) {
+        writeLock.lock();
         try {
-            this.serverTimeoutMillis = timeoutMillis;
+            batchDepth++;
+            try {
+                updates.run();
+            } finally {
+                batchDepth--;
+            }
+            if (batchDepth == 0 && dirty) {
+                publish();
+            }
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
-    public void updateServer(@Nonnull ServerState state) {
-        lock.writeLock().lock();
+    /**
+     * Add or replace a server, unless a refresh already covers {@code version}. Its player count
+     * is the number of players listed on it here.
+     *
+     * @return false if the event was ignored
+     */
+    public boolean updateServer(@Nonnull ServerState state, long version) {
+        writeLock.lock();
         try {
-            servers.put(state.serverId(), state);
+            if (version <= refreshedVersion) {
+                return false;
+            }
+            serverVersions.put(state.serverId(), version);
+            int count = serverPlayers.getOrDefault(state.serverId(), Collections.emptySet()).size();
+            servers.put(state.serverId(), state.withPlayerCount(count));
+            markChanged();
+            return true;
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
-    public void removeServer(@Nonnull String serverId) {
-        lock.writeLock().lock();
+    /**
+     * Remove a server and its players, unless a refresh already covers {@code version}.
+     *
+     * @return false if the event was ignored
+     */
+    public boolean removeServer(@Nonnull String serverId, long version) {
+        writeLock.lock();
         try {
-            servers.remove(serverId);
-            List<UUID> toRemove = new ArrayList<>();
-            playerToServer.forEach((uuid, sid) -> {
-                if (serverId.equals(sid)) {
-                    toRemove.add(uuid);
-                }
-            });
-            for (UUID uuid : toRemove) {
-                players.remove(uuid);
-                playerToServer.remove(uuid);
+            if (version <= refreshedVersion) {
+                return false;
             }
+            serverVersions.put(serverId, version);
+            servers.remove(serverId);
+            removeServerPlayers(serverId);
+            markChanged();
+            return true;
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
-    public void updatePlayer(@Nonnull PlayerInfo player) {
-        lock.writeLock().lock();
+    /**
+     * Add, move or rename a player, unless a refresh already covers {@code version}.
+     *
+     * @return false if the event was ignored or the player was already listed like this
+     */
+    public boolean updatePlayer(@Nonnull PlayerInfo player, long version) {
+        writeLock.lock();
         try {
-            String oldServerId = playerToServer.put(player.uuid(), player.serverId());
-            if (oldServerId != null && !oldServerId.equals(player.serverId())) {
-                updateServerPlayerCount(oldServerId);
+            if (version <= refreshedVersion) {
+                return false;
             }
-            players.put(player.uuid(), player);
-            updateServerPlayerCount(player.serverId());
+            playerVersions.put(player.uuid(), version);
+            PlayerInfo current = players.get(player.uuid());
+            if (current != null && sameListing(current, player)) {
+                return false;
+            }
+            putPlayer(player);
+            return true;
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
-    public void removePlayer(@Nonnull UUID playerId) {
-        lock.writeLock().lock();
+    /**
+     * Remove a player that left {@code serverId}, unless a refresh already covers
+     * {@code version} or the player has since moved to another server.
+     *
+     * @param serverId The server the player left, or null for wherever it is
+     * @return false if the event was ignored or the player was not listed
+     */
+    public boolean removePlayer(@Nonnull UUID playerId, @Nullable String serverId, long version) {
+        writeLock.lock();
         try {
-            PlayerInfo removed = players.remove(playerId);
-            String serverId = playerToServer.remove(playerId);
-            if (removed != null && serverId != null) {
-                updateServerPlayerCount(serverId);
+            if (version <= refreshedVersion) {
+                return false;
+            }
+            String current = playerToServer.get(playerId);
+            if (serverId != null && current != null && !current.equals(serverId)) {
+                return false;
+            }
+            playerVersions.put(playerId, version);
+            if (players.get(playerId) == null) {
+                return false;
             }
+            dropPlayer(playerId);
+            return true;
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
     @Nullable
     public PlayerInfo getPlayer(@Nonnull UUID playerId) {
-        lock.readLock().lock();
-        try {
-            return players.get(playerId);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return players.get(playerId);
     }
 
     @Nullable
     public ServerState getServer(@Nonnull String serverId) {
-        lock.readLock().lock();
-        try {
-            return servers.get(serverId);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return servers.get(serverId);
     }
 
+    /**
+     * Get the last published snapshot. Never blocks and never copies.
+     */
     @Nonnull
     public NetworkSnapshot getSnapshot() {
-        lock.readLock().lock();
-        try {
-            return NetworkSnapshot.of(
-                    List.copyOf(servers.values()),
-                    List.copyOf(players.values())
-            );
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot;
+    }
+
+    /**
+     * Get the log of player changes applied to this cache.
+     */
+    @Nonnull
+    public PlayerChangeLog getChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the pre-encoded list of the players in this cache.
+     */
+    @Nonnull
+    public PlayerListArena getPlayerList() {
+        return playerList;
     }
 
     @Nonnull
     public List<ServerState> getServers() {
-        lock.readLock().lock();
-        try {
-            return List.copyOf(servers.values());
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.servers();
     }
 
     @Nonnull
     public List<PlayerInfo> getPlayers() {
-        lock.readLock().lock();
-        try {
-            return List.copyOf(players.values());
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.players();
     }
 
     public int getTotalPlayerCount() {
-        lock.readLock().lock();
-        try {
-            return players.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.players().size();
     }
 
     public int getServerCount() {
-        lock.readLock().lock();
-        try {
-            return servers.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.servers().size();
     }
 
     public int getOnlineServerCount() {
-        lock.readLock().lock();
-        try {
-            return (int) servers.values().stream()
-                    .filter(s -> !s.isStale(serverTimeoutMillis))
-                    .count();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.getOnlineServerCount(serverTimeoutMillis);
     }
 
     public boolean hasStaleServers() {
-        lock.readLock().lock();
-        try {
-            return servers.values().stream().anyMatch(s -> s.isStale(serverTimeoutMillis));
-        } finally {
-            lock.readLock().unlock();
-        }
+        long timeoutMillis = serverTimeoutMillis;
+        return snapshot.servers().stream().anyMatch(s -> s.isStale(timeoutMillis));
     }
 
     public void clear() {
-        lock.writeLock().lock();
+        writeLock.lock();
         try {
             servers.clear();
+            players.keySet().forEach(changes::leave);
             players.clear();
+            playerList.clear();
             playerToServer.clear();
+            serverPlayers.clear();
+            playerVersions.clear();
+            serverVersions.clear();
+            refreshedVersion = 0;
+            playersDirty = true;
+            markChanged();
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
-    public void refresh(@Nonnull NetworkSnapshot snapshot) {
-        lock.writeLock().lock();
+    /**
+     * Merge a full read of the network state that reflects every event up to {@code version}.
+     * Entries changed by a later event are kept; everything else is brought in line with the
+     * snapshot, and only entries that differ are written.
+     *
+     * @return the joins and leaves the events had missed, empty if the cache was in step or
+     * this is the first refresh
+     */
+    @Nonnull
+    public List<NetworkEvent> refresh(@Nonnull NetworkSnapshot snapshot, long version) {
+        writeLock.lock();
         try {
-            servers.clear();
-            players.clear();
-            playerToServer.clear();
-
-            for (ServerState server : snapshot.servers()) {
-                servers.put(server.serverId(), server);
+            if (version < refreshedVersion) {
+                // A later refresh finished first.
+                return List.of();
             }
 
-            for (PlayerInfo player : snapshot.players()) {
-                players.put(player.uuid(), player);
-                playerToServer.put(player.uuid(), player.serverId());
+            List<NetworkEvent> missed = new ArrayList<>();
+            batch(() -> merge(snapshot, version, missed));
+            return missed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void merge(@Nonnull NetworkSnapshot snapshot, long version, @Nonnull List<NetworkEvent> missed) {
+        boolean initial = lastRefreshTime == 0;
+        Set<UUID> listed = new HashSet<>(snapshot.players().size() * 2);
+        int listedCached = 0;
+        for (PlayerInfo player : snapshot.players()) {
+            if (isNewer(serverVersions, player.serverId(), version) || !listed.add(player.uuid())) {
+                continue;
+            }
+            PlayerInfo current = players.get(player.uuid());
+            if (!isNewer(playerVersions, player.uuid(), version)
+                    && (current == null || !sameListing(current, player))) {
+                putPlayer(player);
+                current = player;
+                if (!initial) {
+                    missed.add(new NetworkEvent.PlayerJoin(player.uuid(), player.username(),
+                            player.serverId(), player.serverName()));
+                }
+            }
+            if (current != null) {
+                listedCached++;
+            }
+        }
+        // Every cached player was listed unless some are left over.
+        if (listedCached != players.size()) {
+            for (PlayerInfo current : List.copyOf(players.values())) {
+                if (!listed.contains(current.uuid()) && !isNewer(playerVersions, current.uuid(), version)) {
+                    dropPlayer(current.uuid());
+                    missed.add(new NetworkEvent.PlayerLeave(current.uuid(), current.serverId()));
+                }
             }
+        }
 
-            this.lastRefreshTime = System.currentTimeMillis();
-        } finally {
-            lock.writeLock().unlock();
+        Set<String> refreshedServers = new HashSet<>(snapshot.servers().size() * 2);
+        for (ServerState server : snapshot.servers()) {
+            if (isNewer(serverVersions, server.serverId(), version)) {
+                continue;
+            }
+            refreshedServers.add(server.serverId());
+            int count = serverPlayers.getOrDefault(server.serverId(), Collections.emptySet()).size();
+            ServerState merged = server.withPlayerCount(count);
+            if (!merged.equals(servers.put(server.serverId(), merged))) {
+                markChanged();
+            }
         }
+        if (refreshedServers.size() != servers.size()) {
+            for (String serverId : List.copyOf(servers.keySet())) {
+                if (!refreshedServers.contains(serverId) && !isNewer(serverVersions, serverId, version)) {
+                    servers.remove(serverId);
+                    markChanged();
+                }
+            }
+        }
+
+        // Later refreshes read everything up to here, so these versions are settled.
+        playerVersions.values().removeIf(v -> v <= version);
+        serverVersions.values().removeIf(v -> v <= version);
+        this.refreshedVersion = version;
+        this.lastRefreshTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the version the last refresh reflects.
+     */
+    public long getRefreshedVersion() {
+        return refreshedVersion;
     }
 
     public long getLastRefreshTime() {
-        lock.readLock().lock();
-        try {
-            return lastRefreshTime;
-        } finally {
-            lock.readLock().unlock();
-        }
+        return lastRefreshTime;
     }
 
     public int pruneStaleServers() {
-        lock.writeLock().lock();
+        writeLock.lock();
         try {
             List<String> staleServers = new ArrayList<>();
             servers.forEach((id, state) -> {
@@ -238,31 +378,114 @@ public class LocalStateCache {
 
             for (String serverId : staleServers) {
                 servers.remove(serverId);
-                List<UUID> toRemove = new ArrayList<>();
-                playerToServer.forEach((uuid, sid) -> {
-                    if (serverId.equals(sid)) {
-                        toRemove.add(uuid);
-                    }
-                });
-                for (UUID uuid : toRemove) {
-                    players.remove(uuid);
-                    playerToServer.remove(uuid);
-                }
+                removeServerPlayers(serverId);
             }
 
+            if (!staleServers.isEmpty()) {
+                markChanged();
+            }
             return staleServers.size();
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
-    private void updateServerPlayerCount(@Nonnull String serverId) {
-        int count = 0;
-        for (Map.Entry<UUID, String> entry : playerToServer.entrySet()) {
-            if (serverId.equals(entry.getValue())) {
-                count++;
+    private void markChanged() {
+        dirty = true;
+        if (batchDepth == 0) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        snapshot = new NetworkSnapshot(
+                servers.snapshot(),
+                playersDirty ? players.snapshot() : snapshot.players(),
+                System.currentTimeMillis()
+        );
+        dirty = false;
+        playersDirty = false;
+        StateGeneration.bump();
+    }
+
+    private void putPlayer(@Nonnull PlayerInfo player) {
+        String oldServerId = playerToServer.put(player.uuid(), player.serverId());
+        if (oldServerId != null && !oldServerId.equals(player.serverId())) {
+            unindexPlayer(oldServerId, player.uuid());
+            updateServerPlayerCount(oldServerId);
+        }
+        serverPlayers.computeIfAbsent(player.serverId(), k -> new HashSet<>()).add(player.uuid());
+        recordJoin(players.put(player.uuid(), player), player);
+        updateServerPlayerCount(player.serverId());
+        playersDirty = true;
+        markChanged();
+    }
+
+    private void dropPlayer(@Nonnull UUID playerId) {
+        PlayerInfo removed = players.remove(playerId);
+        String serverId = playerToServer.remove(playerId);
+        if (serverId != null) {
+            unindexPlayer(serverId, playerId);
+        }
+        if (removed != null) {
+            recordLeave(playerId);
+            playersDirty = true;
+        }
+        if (removed != null && serverId != null) {
+            updateServerPlayerCount(serverId);
+            markChanged();
+        }
+    }
+
+    private void removeServerPlayers(@Nonnull String serverId) {
+        Set<UUID> onServer = serverPlayers.remove(serverId);
+        if (onServer == null) {
+            return;
+        }
+        for (UUID uuid : onServer) {
+            if (players.remove(uuid) != null) {
+                recordLeave(uuid);
+                playersDirty = true;
             }
+            playerToServer.remove(uuid);
         }
+    }
+
+    private static <K> boolean isNewer(@Nonnull Map<K, Long> versions, @Nonnull K key, long version) {
+        Long changed = versions.get(key);
+        return changed != null && changed > version;
+    }
+
+    private static boolean sameListing(@Nonnull PlayerInfo a, @Nonnull PlayerInfo b) {
+        return a.username().equals(b.username())
+                && a.serverId().equals(b.serverId())
+                && a.serverName().equals(b.serverName());
+    }
+
+    private void recordJoin(@Nullable PlayerInfo previous, @Nonnull PlayerInfo player) {
+        if (previous == null || !previous.username().equals(player.username())) {
+            changes.join(player.uuid(), player.username());
+            if (previous != null) {
+                playerList.remove(player.uuid());
+            }
+            playerList.add(player.uuid(), player.username());
+        }
+    }
+
+    private void recordLeave(@Nonnull UUID playerId) {
+        changes.leave(playerId);
+        playerList.remove(playerId);
+    }
+
+    private void unindexPlayer(@Nonnull String serverId, @Nonnull UUID playerId) {
+        Set<UUID> onServer = serverPlayers.get(serverId);
+        if (onServer != null && onServer.remove(playerId) && onServer.isEmpty()) {
+            serverPlayers.remove(serverId);
+        }
+    }
+
+    private void updateServerPlayerCount(@Nonnull String serverId) {
+        int count = serverPlayers.getOrDefault(serverId, Collections.emptySet()).size();
 
         ServerState current = servers.get(serverId);
         if (current != null) {
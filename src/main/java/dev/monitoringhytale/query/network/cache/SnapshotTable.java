@@ -0,0 +1,160 @@
+package dev.monitoringhytale.query.network.cache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A concurrent map whose values can also be taken as an immutable list without copying them all.
+ *
+ * <p>Values are kept in fixed-size chunks as well as in the map. A list shares the chunks with
+ * the table, and the first write to a chunk after a list was taken copies that chunk, so taking
+ * the next list costs the chunk table plus the chunks written since. A removal moves the last
+ * value into the freed slot.
+ *
+ * <p>Writers must serialize externally. Map reads never lock.
+ */
+final class SnapshotTable<K, V> {
+
+    private static final int CHUNK_SHIFT = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+    private final HashMap<K, Integer> indexes = new HashMap<>();
+    private final ArrayList<K> keys = new ArrayList<>();
+
+    private Object[][] chunks = new Object[0][];
+    private boolean[] shared = new boolean[0]; // shared[i]: chunks[i] is part of a list taken
+
+    @Nullable
+    V get(@Nonnull K key) {
+        return map.get(key);
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    @Nonnull
+    Set<K> keySet() {
+        return map.keySet();
+    }
+
+    @Nonnull
+    Collection<V> values() {
+        return map.values();
+    }
+
+    void forEach(@Nonnull BiConsumer<? super K, ? super V> action) {
+        map.forEach(action);
+    }
+
+    @Nullable
+    V put(@Nonnull K key, @Nonnull V value) {
+        V previous = map.put(key, value);
+        Integer index = indexes.get(key);
+        if (index == null) {
+            index = keys.size();
+            indexes.put(key, index);
+            keys.add(key);
+        }
+        writable(index)[index & CHUNK_MASK] = value;
+        return previous;
+    }
+
+    @Nullable
+    V remove(@Nonnull K key) {
+        V removed = map.remove(key);
+        Integer index = indexes.remove(key);
+        if (index == null) {
+            return removed;
+        }
+        int last = keys.size() - 1;
+        K lastKey = keys.remove(last);
+        if (index != last) {
+            Object moved = chunks[last >>> CHUNK_SHIFT][last & CHUNK_MASK];
+            keys.set(index, lastKey);
+            indexes.put(lastKey, index);
+            writable(index)[index & CHUNK_MASK] = moved;
+        }
+        writable(last)[last & CHUNK_MASK] = null;
+        return removed;
+    }
+
+    void clear() {
+        map.clear();
+        indexes.clear();
+        keys.clear();
+        chunks = new Object[0][];
+        shared = new boolean[0];
+    }
+
+    /**
+     * Get the values as an immutable list, in no particular order.
+     */
+    @Nonnull
+    List<V> snapshot() {
+        int size = keys.size();
+        Object[][] table = Arrays.copyOf(chunks, (size + CHUNK_MASK) >>> CHUNK_SHIFT);
+        Arrays.fill(shared, true);
+        return new Snapshot<>(table, size);
+    }
+
+    /**
+     * Get the chunk holding {@code index}, copying it first if a list shares it.
+     */
+    @Nonnull
+    private Object[] writable(int index) {
+        int chunk = index >>> CHUNK_SHIFT;
+        if (chunk >= chunks.length) {
+            int length = Math.max(chunk + 1, chunks.length * 2);
+            chunks = Arrays.copyOf(chunks, length);
+            shared = Arrays.copyOf(shared, length);
+        }
+        Object[] values = chunks[chunk];
+        if (values == null) {
+            values = new Object[CHUNK_SIZE];
+        } else if (shared[chunk]) {
+            values = values.clone();
+        } else {
+            return values;
+        }
+        chunks[chunk] = values;
+        shared[chunk] = false;
+        return values;
+    }
+
+    private static final class Snapshot<V> extends AbstractList<V> implements RandomAccess {
+
+        private final Object[][] chunks;
+        private final int size;
+
+        Snapshot(@Nonnull Object[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(int index) {
+            Objects.checkIndex(index, size);
+            return (V) chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -96,6 +96,18 @@ public interface NetworkStateStore {
     @Nonnull
     CompletableFuture<List<PlayerInfo>> getAllPlayers();
 
+    /**
+     * Get the shared challenge secret for a key epoch, storing {@code proposed} if no server
+     * has created one yet. Every server in the network gets the same secret for the same epoch.
+     *
+     * @param epoch      Key epoch (rotation periods since the Unix epoch)
+     * @param proposed   Secret to store if none exists
+     * @param ttlSeconds How long the stored secret is kept
+     * @return Future with the secret for this epoch
+     */
+    @Nonnull
+    CompletableFuture<byte[]> getOrCreateChallengeSecret(long epoch, @Nonnull byte[] proposed, int ttlSeconds);
+
     /**
      * Subscribe to network events.
      * Events are delivered on the Netty event loop thread.
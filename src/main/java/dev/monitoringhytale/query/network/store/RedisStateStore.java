@@ -11,6 +11,8 @@ import dev.monitoringhytale.query.network.model.NetworkSnapshot;
 import dev.monitoringhytale.query.network.model.PlayerInfo;
 import dev.monitoringhytale.query.network.model.ServerState;
 import io.lettuce.core.ClientOptions;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisCommandExecutionException;
 import io.lettuce.core.ScriptOutputType;
@@ -20,6 +22,7 @@ import io.lettuce.core.TimeoutOptions;
 import io.lettuce.core.XReadArgs;
 import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
 import io.lettuce.core.resource.ClientResources;
 import io.lettuce.core.resource.DefaultClientResources;
 
@@ -27,7 +30,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -39,8 +44,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -49,11 +55,29 @@ public class RedisStateStore implements NetworkStateStore {
 
     private static final Gson GSON = new GsonBuilder().create();
     private static final int STREAM_MAX_LEN = 1000;
+    private static final int SNAPSHOT_CHUNK_SERVERS = 100;
+    private static final int STREAM_READ_MIN_COUNT = 100;
+    private static final int STREAM_READ_MAX_COUNT = STREAM_MAX_LEN;
+    private static final long STREAM_BLOCK_MILLIS = 1000;
+    private static final long STREAM_RETRY_MILLIS = 1000;
     private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(5);
     private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
 
+    private static final int PRUNE_CHUNK_LOCATIONS = 1000;
+    private static final long PRUNE_INTERVAL_MINUTES = 60;
+
+    /**
+     * Add a player to a server, taking it off the server it was on before.
+     *
+     * <p>A player is online where its server's players hash lists it and the server hash exists,
+     * so a heartbeat only touches those two keys whatever the player count. The locations hash
+     * maps each player to the server it last joined, for the move. Its fields never expire: the
+     * players hash outlives the server hash by one TTL, so whichever node's
+     * {@link #SNAPSHOT_SCRIPT} finds a crashed server expired drops its players' locations.
+     * {@link #PRUNE_LOCATIONS_SCRIPT} sweeps out any left behind, rarely, from every node.
+     */
     private static final String CONNECT_SCRIPT = """
-            local playerKey = KEYS[1]
+            local locationsKey = KEYS[1]
             local newPlayersKey = KEYS[2]
             local newServerKey = KEYS[3]
             local streamKey = KEYS[4]
@@ -61,28 +85,30 @@ public class RedisStateStore implements NetworkStateStore {
             local uuid = ARGV[1]
             local newServerId = ARGV[2]
             local playerJson = ARGV[3]
-            local ttlSeconds = tonumber(ARGV[4])
-            local networkId = ARGV[5]
-            local streamMaxLen = tonumber(ARGV[6])
-            local username = ARGV[7]
-            local serverName = ARGV[8]
+            local networkId = ARGV[4]
+            local streamMaxLen = tonumber(ARGV[5])
+            local username = ARGV[6]
+            local serverName = ARGV[7]
+            local ttlSeconds = tonumber(ARGV[8])
 
-            local oldServerId = redis.call('GET', playerKey)
+            local oldServerId = redis.call('HGET', locationsKey, uuid)
 
             if oldServerId and oldServerId ~= newServerId then
                 local oldPlayersKey = 'monitoringhytalequery:network:{' .. networkId .. '}:server:' .. oldServerId .. ':players'
                 local oldServerKey = 'monitoringhytalequery:network:{' .. networkId .. '}:server:' .. oldServerId
-                redis.call('HDEL', oldPlayersKey, uuid)
-                local oldCount = redis.call('HGET', oldServerKey, 'playerCount')
-                if oldCount and tonumber(oldCount) > 0 then
-                    redis.call('HINCRBY', oldServerKey, 'playerCount', -1)
+                if redis.call('HDEL', oldPlayersKey, uuid) == 1 then
+                    local oldCount = redis.call('HGET', oldServerKey, 'playerCount')
+                    if oldCount and tonumber(oldCount) > 0 then
+                        redis.call('HINCRBY', oldServerKey, 'playerCount', -1)
+                    end
                 end
             end
 
-            redis.call('SET', playerKey, newServerId, 'EX', ttlSeconds)
+            redis.call('HSET', locationsKey, uuid, newServerId)
 
             local alreadyOnServer = redis.call('HEXISTS', newPlayersKey, uuid)
             redis.call('HSET', newPlayersKey, uuid, playerJson)
+            redis.call('EXPIRE', newPlayersKey, ttlSeconds * 2)
             if alreadyOnServer == 0 then
                 redis.call('HINCRBY', newServerKey, 'playerCount', 1)
             end
@@ -94,7 +120,7 @@ public class RedisStateStore implements NetworkStateStore {
             """;
 
     private static final String DISCONNECT_SCRIPT = """
-            local playerKey = KEYS[1]
+            local locationsKey = KEYS[1]
             local playersKey = KEYS[2]
             local serverKey = KEYS[3]
             local streamKey = KEYS[4]
@@ -103,9 +129,11 @@ public class RedisStateStore implements NetworkStateStore {
             local uuid = ARGV[2]
             local streamMaxLen = tonumber(ARGV[3])
 
-            local current = redis.call('GET', playerKey)
-            if current == serverId then
-                redis.call('DEL', playerKey)
+            local current = redis.call('HGET', locationsKey, uuid)
+            if current == serverId or (not current and redis.call('HEXISTS', playersKey, uuid) == 1) then
+                if current then
+                    redis.call('HDEL', locationsKey, uuid)
+                end
                 redis.call('HDEL', playersKey, uuid)
                 local count = redis.call('HGET', serverKey, 'playerCount')
                 if count and tonumber(count) > 0 then
@@ -122,11 +150,26 @@ public class RedisStateStore implements NetworkStateStore {
             local serverKey = KEYS[1]
             local serversSetKey = KEYS[2]
             local streamKey = KEYS[3]
+            local playersKey = KEYS[4]
+            local locationsKey = KEYS[5]
 
             local serverId = ARGV[1]
             local ttlSeconds = tonumber(ARGV[2])
             local streamMaxLen = tonumber(ARGV[3])
 
+            -- A players hash that outlived the server hash is left over from a crash. Announce
+            -- the old instance offline so subscribers drop its players.
+            if redis.call('EXISTS', serverKey) == 0 and redis.call('EXISTS', playersKey) == 1 then
+                for _, uuid in ipairs(redis.call('HKEYS', playersKey)) do
+                    if redis.call('HGET', locationsKey, uuid) == serverId then
+                        redis.call('HDEL', locationsKey, uuid)
+                    end
+                end
+                redis.call('DEL', playersKey)
+                local offline = cjson.encode({type='server_offline', serverId=serverId})
+                redis.call('XADD', streamKey, 'MAXLEN', '~', streamMaxLen, '*', 'data', offline)
+            end
+
             for i = 4, #ARGV, 2 do
                 redis.call('HSET', serverKey, ARGV[i], ARGV[i+1])
             end
@@ -134,8 +177,13 @@ public class RedisStateStore implements NetworkStateStore {
             redis.call('EXPIRE', serverKey, ttlSeconds)
             redis.call('SADD', serversSetKey, serverId)
 
-            local serverName = redis.call('HGET', serverKey, 'serverName') or serverId
-            local event = cjson.encode({type='server_online', serverId=serverId, serverName=serverName})
+            local state = {}
+            local fields = redis.call('HGETALL', serverKey)
+            for i = 1, #fields, 2 do
+                state[fields[i]] = fields[i + 1]
+            end
+            local event = cjson.encode({type='server_online', serverId=serverId,
+                serverName=state.serverName or serverId, state=state})
             redis.call('XADD', streamKey, 'MAXLEN', '~', streamMaxLen, '*', 'data', event)
 
             return 'OK'
@@ -146,21 +194,15 @@ public class RedisStateStore implements NetworkStateStore {
             local playersKey = KEYS[2]
 
             local ttlSeconds = tonumber(ARGV[1])
-            local networkId = ARGV[2]
 
-            for i = 3, #ARGV, 2 do
+            for i = 2, #ARGV, 2 do
                 if ARGV[i] ~= 'playerCount' then
                     redis.call('HSET', serverKey, ARGV[i], ARGV[i+1])
                 end
             end
 
             redis.call('EXPIRE', serverKey, ttlSeconds)
-            redis.call('EXPIRE', playersKey, ttlSeconds)
-
-            local playerUuids = redis.call('HKEYS', playersKey)
-            for _, uuid in ipairs(playerUuids) do
-                redis.call('EXPIRE', 'monitoringhytalequery:network:{' .. networkId .. '}:player:' .. uuid, ttlSeconds)
-            end
+            redis.call('EXPIRE', playersKey, ttlSeconds * 2)
 
             return 'OK'
             """;
@@ -170,10 +212,17 @@ public class RedisStateStore implements NetworkStateStore {
             local playersKey = KEYS[2]
             local serversSetKey = KEYS[3]
             local streamKey = KEYS[4]
+            local locationsKey = KEYS[5]
 
             local serverId = ARGV[1]
             local streamMaxLen = tonumber(ARGV[2])
 
+            for _, uuid in ipairs(redis.call('HKEYS', playersKey)) do
+                if redis.call('HGET', locationsKey, uuid) == serverId then
+                    redis.call('HDEL', locationsKey, uuid)
+                end
+            end
+
             redis.call('DEL', serverKey, playersKey)
             redis.call('SREM', serversSetKey, serverId)
 
@@ -183,6 +232,99 @@ public class RedisStateStore implements NetworkStateStore {
             return 'OK'
             """;
 
+    /**
+     * Remove one HSCAN chunk of locations whose server hash has expired. Replies {nextCursor, removed}.
+     */
+    private static final String PRUNE_LOCATIONS_SCRIPT = """
+            local locationsKey = KEYS[1]
+
+            local cursor = ARGV[1]
+            local count = tonumber(ARGV[2])
+            local networkId = ARGV[3]
+
+            local prefix = 'monitoringhytalequery:network:{' .. networkId .. '}:server:'
+            local scan = redis.call('HSCAN', locationsKey, cursor, 'COUNT', count)
+            local entries = scan[2]
+            local live = {}
+            local removed = 0
+
+            for i = 1, #entries, 2 do
+                local serverId = entries[i + 1]
+                if live[serverId] == nil then
+                    live[serverId] = redis.call('EXISTS', prefix .. serverId) == 1
+                end
+                if not live[serverId] then
+                    redis.call('HDEL', locationsKey, entries[i])
+                    removed = removed + 1
+                end
+            end
+
+            return {scan[1], removed}
+            """;
+
+    private static final String CHALLENGE_KEY_SCRIPT = """
+            local secretKey = KEYS[1]
+            local proposed = ARGV[1]
+            local ttlSeconds = tonumber(ARGV[2])
+
+            redis.call('SET', secretKey, proposed, 'NX', 'EX', ttlSeconds)
+            return redis.call('GET', secretKey)
+            """;
+
+    /**
+     * Read one chunk of the network state: the next servers from an SSCAN of the servers set, each
+     * with its hash and its players hash. Servers whose hash has expired are removed from the set,
+     * their players' locations dropped and the server announced offline in the same step. Replies
+     * {nextCursor, newestEvent, serverId, server, players, ...}, where newestEvent is the ID of the
+     * newest event in the stream when the first chunk was read, empty for later chunks or an empty
+     * stream.
+     */
+    private static final String SNAPSHOT_SCRIPT = """
+            local serversSetKey = KEYS[1]
+            local streamKey = KEYS[2]
+            local locationsKey = KEYS[3]
+
+            local cursor = ARGV[1]
+            local count = tonumber(ARGV[2])
+            local networkId = ARGV[3]
+            local streamMaxLen = tonumber(ARGV[4])
+
+            local prefix = 'monitoringhytalequery:network:{' .. networkId .. '}:server:'
+            local reply = {'', ''}
+            if cursor == '0' then
+                local newest = redis.call('XREVRANGE', streamKey, '+', '-', 'COUNT', 1)
+                if #newest > 0 then
+                    reply[2] = newest[1][1]
+                end
+            end
+
+            local scan = redis.call('SSCAN', serversSetKey, cursor, 'COUNT', count)
+            reply[1] = scan[1]
+
+            for _, serverId in ipairs(scan[2]) do
+                local server = redis.call('HGETALL', prefix .. serverId)
+                if #server == 0 then
+                    if redis.call('SREM', serversSetKey, serverId) == 1 then
+                        local playersKey = prefix .. serverId .. ':players'
+                        for _, uuid in ipairs(redis.call('HKEYS', playersKey)) do
+                            if redis.call('HGET', locationsKey, uuid) == serverId then
+                                redis.call('HDEL', locationsKey, uuid)
+                            end
+                        end
+                        redis.call('DEL', playersKey)
+                        local event = cjson.encode({type='server_offline', serverId=serverId})
+                        redis.call('XADD', streamKey, 'MAXLEN', '~', streamMaxLen, '*', 'data', event)
+                    end
+                else
+                    reply[#reply + 1] = serverId
+                    reply[#reply + 1] = server
+                    reply[#reply + 1] = redis.call('HGETALL', prefix .. serverId .. ':players')
+                end
+            end
+
+            return reply
+            """;
+
     private final HytaleLogger logger;
     private final String networkId;
     private final String serverId;
@@ -202,8 +344,13 @@ public class RedisStateStore implements NetworkStateStore {
     private ScheduledExecutorService heartbeatScheduler;
     private ScheduledExecutorService hubScheduler;
     private ScheduledFuture<?> heartbeatTask;
-    private ScheduledFuture<?> refreshTask;
-    private ScheduledFuture<?> streamReaderTask;
+    private ScheduledFuture<?> pruneTask;
+    private volatile ScheduledFuture<?> refreshTask;
+    private final AtomicBoolean resyncPending = new AtomicBoolean();
+    private boolean refreshing; // hub scheduler only
+    private StatefulRedisConnection<String, String> streamConnection;
+    private Thread streamReader;
+    private volatile boolean streamReaderRunning = false;
 
     private volatile ServerState localServerState;
     private volatile boolean connected = false;
@@ -212,6 +359,9 @@ public class RedisStateStore implements NetworkStateStore {
     private volatile String registerScriptSha;
     private volatile String heartbeatScriptSha;
     private volatile String unregisterScriptSha;
+    private volatile String challengeKeyScriptSha;
+    private volatile String snapshotScriptSha;
+    private volatile String pruneLocationsScriptSha;
 
     public RedisStateStore(@Nonnull HytaleLogger logger,
                            @Nonnull String networkId,
@@ -268,7 +418,7 @@ public class RedisStateStore implements NetworkStateStore {
                 });
 
                 if (subscribe) {
-                    hubScheduler = new ScheduledThreadPoolExecutor(2, r -> {
+                    hubScheduler = new ScheduledThreadPoolExecutor(1, r -> {
                         Thread t = new Thread(r, "monitoringhytalequery-hub");
                         t.setDaemon(true);
                         return t;
@@ -295,12 +445,15 @@ public class RedisStateStore implements NetworkStateStore {
         return CompletableFuture.runAsync(() -> {
             try {
                 if (heartbeatTask != null) heartbeatTask.cancel(false);
+                if (pruneTask != null) pruneTask.cancel(false);
                 if (refreshTask != null) refreshTask.cancel(false);
-                if (streamReaderTask != null) streamReaderTask.cancel(false);
+                streamReaderRunning = false;
 
                 if (heartbeatScheduler != null) heartbeatScheduler.shutdownNow();
                 if (hubScheduler != null) hubScheduler.shutdownNow();
 
+                if (streamConnection != null) streamConnection.close();
+                if (streamReader != null) streamReader.join(STREAM_BLOCK_MILLIS);
                 if (connection != null) connection.close();
                 if (redisClient != null) redisClient.shutdown();
                 if (clientResources != null) clientResources.shutdown();
@@ -346,7 +499,9 @@ public class RedisStateStore implements NetworkStateStore {
         String[] keys = {
                 key("server", serverId),
                 key("servers"),
-                key("events")
+                key("events"),
+                key("server", serverId, "players"),
+                key("locations")
         };
 
         return evalWithRetry(() -> registerScriptSha, REGISTER_SCRIPT, ScriptOutputType.VALUE,
@@ -368,7 +523,8 @@ public class RedisStateStore implements NetworkStateStore {
                 key("server", serverId),
                 key("server", serverId, "players"),
                 key("servers"),
-                key("events")
+                key("events"),
+                key("locations")
         };
         String[] args = {
                 serverId,
@@ -386,10 +542,9 @@ public class RedisStateStore implements NetworkStateStore {
     @Nonnull
     public CompletableFuture<Void> onPlayerJoin(@Nonnull PlayerInfo player) {
         String playerJson = GSON.toJson(new PlayerData(player.username(), player.joinTime()));
-        int ttlSeconds = NetworkModule.SERVER_TIMEOUT_SECONDS * 2;
 
         String[] keys = {
-                key("player", player.uuid().toString()),
+                key("locations"),
                 key("server", serverId, "players"),
                 key("server", serverId),
                 key("events")
@@ -400,11 +555,11 @@ public class RedisStateStore implements NetworkStateStore {
                 player.uuid().toString(),
                 serverId,
                 playerJson,
-                String.valueOf(ttlSeconds),
                 networkId,
                 String.valueOf(STREAM_MAX_LEN),
                 player.username(),
-                serverName
+                serverName,
+                String.valueOf(NetworkModule.SERVER_TIMEOUT_SECONDS * 2)
         };
 
         return evalWithRetry(() -> connectScriptSha, CONNECT_SCRIPT, ScriptOutputType.VALUE, keys, args)
@@ -418,7 +573,7 @@ public class RedisStateStore implements NetworkStateStore {
     @Nonnull
     public CompletableFuture<Void> onPlayerLeave(@Nonnull UUID playerId, @Nonnull String serverId) {
         String[] keys = {
-                key("player", playerId.toString()),
+                key("locations"),
                 key("server", serverId, "players"),
                 key("server", serverId),
                 key("events")
@@ -443,7 +598,6 @@ public class RedisStateStore implements NetworkStateStore {
 
         List<String> args = new ArrayList<>();
         args.add(String.valueOf(NetworkModule.SERVER_TIMEOUT_SECONDS * 2));
-        args.add(networkId);
 
         Map<String, String> fields = serverStateToMap(state);
         for (Map.Entry<String, String> entry : fields.entrySet()) {
@@ -477,7 +631,7 @@ public class RedisStateStore implements NetworkStateStore {
     @Override
     @Nonnull
     public CompletableFuture<NetworkSnapshot> fetchNetworkSnapshot() {
-        return fetchFullSnapshot();
+        return fetchFullSnapshot().thenApply(VersionedSnapshot::snapshot);
     }
 
     @Override
@@ -492,6 +646,17 @@ public class RedisStateStore implements NetworkStateStore {
         }
     }
 
+    @Override
+    @Nonnull
+    public CompletableFuture<byte[]> getOrCreateChallengeSecret(long epoch, @Nonnull byte[] proposed, int ttlSeconds) {
+        String[] keys = {key("challenge", "secret", String.valueOf(epoch))};
+        String[] args = {Base64.getEncoder().encodeToString(proposed), String.valueOf(ttlSeconds)};
+
+        return this.<String>evalWithRetry(() -> challengeKeyScriptSha, CHALLENGE_KEY_SCRIPT, ScriptOutputType.VALUE,
+                        keys, args)
+                .thenApply(value -> Base64.getDecoder().decode(value));
+    }
+
     @Override
     public void subscribe(@Nonnull Consumer<NetworkEvent> listener) {
         listeners.add(listener);
@@ -518,7 +683,10 @@ public class RedisStateStore implements NetworkStateStore {
                     commands.scriptLoad(DISCONNECT_SCRIPT).thenAccept(sha -> disconnectScriptSha = sha).toCompletableFuture(),
                     commands.scriptLoad(REGISTER_SCRIPT).thenAccept(sha -> registerScriptSha = sha).toCompletableFuture(),
                     commands.scriptLoad(HEARTBEAT_SCRIPT).thenAccept(sha -> heartbeatScriptSha = sha).toCompletableFuture(),
-                    commands.scriptLoad(UNREGISTER_SCRIPT).thenAccept(sha -> unregisterScriptSha = sha).toCompletableFuture()
+                    commands.scriptLoad(UNREGISTER_SCRIPT).thenAccept(sha -> unregisterScriptSha = sha).toCompletableFuture(),
+                    commands.scriptLoad(CHALLENGE_KEY_SCRIPT).thenAccept(sha -> challengeKeyScriptSha = sha).toCompletableFuture(),
+                    commands.scriptLoad(SNAPSHOT_SCRIPT).thenAccept(sha -> snapshotScriptSha = sha).toCompletableFuture(),
+                    commands.scriptLoad(PRUNE_LOCATIONS_SCRIPT).thenAccept(sha -> pruneLocationsScriptSha = sha).toCompletableFuture()
             ).get(COMMAND_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
             logger.at(Level.FINE).log("Loaded Lua scripts");
         } catch (Exception e) {
@@ -548,56 +716,133 @@ public class RedisStateStore implements NetworkStateStore {
         return stage.toCompletableFuture();
     }
 
+    /**
+     * Read the events stream on a connection of its own, so the blocking XREAD never holds up
+     * commands on the shared one. Each read returns as soon as an event arrives, and asks for
+     * more events at once while the reads keep coming back full.
+     */
     private void startStreamReader() {
-        streamReaderTask = hubScheduler.scheduleWithFixedDelay(() -> {
-            if (!connected) return;
+        streamConnection = redisClient.connect();
+        // Start after the newest event: the first refresh covers everything before it.
+        List<StreamMessage<String, String>> newest = streamConnection.sync()
+                .xrevrange(key("events"), Range.unbounded(), Limit.create(0, 1));
+        streamCursor = newest.isEmpty() ? "0-0" : newest.get(0).getId();
+
+        streamReaderRunning = true;
+        streamReader = new Thread(this::runStreamReader, "monitoringhytalequery-stream-reader");
+        streamReader.setDaemon(true);
+        streamReader.start();
+    }
+
+    private void runStreamReader() {
+        RedisCommands<String, String> stream = streamConnection.sync();
+        int count = STREAM_READ_MIN_COUNT;
+        while (streamReaderRunning) {
             try {
-                readStreamEvents();
+                int read = readStreamEvents(stream, count);
+                if (read >= count) {
+                    count = Math.min(count * 2, STREAM_READ_MAX_COUNT);
+                } else if (read < count / 2) {
+                    count = Math.max(count / 2, STREAM_READ_MIN_COUNT);
+                }
             } catch (Exception e) {
-                if (!(e instanceof TimeoutException)) {
-                    logger.at(Level.WARNING).withCause(e).log("Error reading stream events");
+                if (!streamReaderRunning) {
+                    return;
+                }
+                logger.at(Level.FINE).log("Stream read: %s", e.getMessage());
+                try {
+                    Thread.sleep(STREAM_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
-        }, 0, 100, TimeUnit.MILLISECONDS);
+        }
     }
 
-    private void readStreamEvents() {
-        try {
-            String cursor = streamCursor;
-            if (cursor == null || cursor.isEmpty()) {
-                logger.at(Level.WARNING).log("Stream cursor unexpectedly null, skipping poll");
-                return;
-            }
-
-            List<StreamMessage<String, String>> messages = commands.xread(
-                    XReadArgs.Builder.count(100).block(50),
-                    XReadArgs.StreamOffset.from(key("events"), cursor)
-            ).get(200, TimeUnit.MILLISECONDS);
+    /**
+     * Block for up to {@link #STREAM_BLOCK_MILLIS} for events after the cursor and apply them.
+     *
+     * @return the number of messages read
+     */
+    private int readStreamEvents(@Nonnull RedisCommands<String, String> stream, int count) {
+        String cursor = streamCursor;
+        List<StreamMessage<String, String>> messages = stream.xread(
+                XReadArgs.Builder.count(count).block(STREAM_BLOCK_MILLIS),
+                XReadArgs.StreamOffset.from(key("events"), cursor));
+
+        if (messages == null || messages.isEmpty()) {
+            return 0;
+        }
 
-            if (messages == null || messages.isEmpty()) return;
+        // Events can only have been trimmed unread if this read came back full.
+        boolean gap = messages.size() >= count && hasGapAfter(stream, cursor);
 
-            String lastId = null;
+        List<NetworkEvent> events = new ArrayList<>(messages.size());
+        cache.batch(() -> {
             for (StreamMessage<String, String> message : messages) {
-                lastId = message.getId();
                 String data = message.getBody().get("data");
                 if (data != null) {
-                    handleStreamMessage(data);
+                    NetworkEvent event = handleStreamMessage(data, streamVersion(message.getId()));
+                    if (event != null) {
+                        events.add(event);
+                    }
                 }
             }
+        });
 
-            if (lastId != null) {
-                streamCursor = lastId;
-            }
-        } catch (TimeoutException e) {
-        } catch (Exception e) {
-            logger.at(Level.FINE).log("Stream read: %s", e.getMessage());
+        streamCursor = messages.get(messages.size() - 1).getId();
+
+        for (NetworkEvent event : events) {
+            notifyListeners(event);
+        }
+
+        if (gap) {
+            logger.at(Level.FINE).log("Events stream trimmed past cursor %s, resyncing", cursor);
+            requestResync();
+        }
+        return messages.size();
+    }
+
+    /**
+     * Check whether events after {@code cursor} may have been trimmed from the stream: it has
+     * been trimmed at all, and its oldest entry is newer than the cursor. This also holds when
+     * only the cursor's own entry is gone, or when the stream was trimmed just after the read;
+     * both only happen during a burst and only cost a refresh.
+     */
+    private boolean hasGapAfter(@Nonnull RedisCommands<String, String> stream, @Nonnull String cursor) {
+        // MAXLEN ~ never trims the stream below its maximum length.
+        if (stream.xlen(key("events")) < STREAM_MAX_LEN) {
+            return false;
         }
+        List<StreamMessage<String, String>> oldest = stream.xrange(key("events"), Range.unbounded(), Limit.create(0, 1));
+        return !oldest.isEmpty() && streamVersion(oldest.get(0).getId()) > streamVersion(cursor);
     }
 
-    private void handleStreamMessage(@Nonnull String data) {
+    /**
+     * Map a stream entry ID to a cache version that sorts the same way: the milliseconds above
+     * 16 bits of sequence number. The sequence saturates, which only matters past 65535 events
+     * in one millisecond.
+     */
+    private static long streamVersion(@Nonnull String id) {
+        int dash = id.indexOf('-');
+        long millis = Long.parseLong(dash < 0 ? id : id.substring(0, dash));
+        long sequence = dash < 0 ? 0 : Long.parseLong(id.substring(dash + 1));
+        return millis << 16 | Math.min(sequence, 0xFFFF);
+    }
+
+    /**
+     * Apply a stream event to the cache. Listeners are notified by the caller once the
+     * whole batch has been published.
+     *
+     * @param version The event's position in the stream, see {@link #streamVersion}
+     * @return the event to deliver to listeners, or null if the message was ignored
+     */
+    @Nullable
+    private NetworkEvent handleStreamMessage(@Nonnull String data, long version) {
         try {
             StreamEvent event = GSON.fromJson(data, StreamEvent.class);
-            if (event == null || event.type == null) return;
+            if (event == null || event.type == null) return null;
 
             switch (event.type) {
                 case "join" -> {
@@ -605,34 +850,49 @@ public class RedisStateStore implements NetworkStateStore {
                         UUID uuid = UUID.fromString(event.uuid);
                         String username = event.username != null ? event.username : "";
                         String serverName = event.serverName != null ? event.serverName : event.server;
-                        cache.updatePlayer(new PlayerInfo(uuid, username, event.server, serverName, System.currentTimeMillis()));
-                        notifyListeners(new NetworkEvent.PlayerJoin(uuid, username, event.server, serverName));
+                        PlayerInfo player = new PlayerInfo(uuid, username, event.server, serverName, System.currentTimeMillis());
+                        if (cache.updatePlayer(player, version)) {
+                            return new NetworkEvent.PlayerJoin(uuid, username, event.server, serverName);
+                        }
                     }
                 }
                 case "leave" -> {
-                    if (event.uuid != null) {
+                    if (event.uuid != null && event.server != null) {
                         UUID uuid = UUID.fromString(event.uuid);
-                        cache.removePlayer(uuid);
-                        notifyListeners(new NetworkEvent.PlayerLeave(uuid, event.server));
+                        if (cache.removePlayer(uuid, event.server, version)) {
+                            return new NetworkEvent.PlayerLeave(uuid, event.server);
+                        }
                     }
                 }
                 case "server_online" -> {
                     if (event.serverId != null) {
-                        notifyListeners(new NetworkEvent.ServerOnline(
-                                event.serverId,
-                                event.serverName != null ? event.serverName : event.serverId));
+                        boolean applied;
+                        if (event.state != null) {
+                            applied = cache.updateServer(parseServerState(event.serverId, event.state), version);
+                        } else {
+                            // Sent by an older version, without the server's state; the refresh reads it.
+                            applied = version > cache.getRefreshedVersion();
+                            if (applied) {
+                                requestResync();
+                            }
+                        }
+                        if (applied) {
+                            return new NetworkEvent.ServerOnline(
+                                    event.serverId,
+                                    event.serverName != null ? event.serverName : event.serverId);
+                        }
                     }
                 }
                 case "server_offline" -> {
-                    if (event.serverId != null) {
-                        cache.removeServer(event.serverId);
-                        notifyListeners(new NetworkEvent.ServerOffline(event.serverId, null));
+                    if (event.serverId != null && cache.removeServer(event.serverId, version)) {
+                        return new NetworkEvent.ServerOffline(event.serverId, null);
                     }
                 }
             }
         } catch (Exception e) {
             logger.at(Level.FINE).log("Failed to parse stream message: %s", data);
         }
+        return null;
     }
 
     private void startHeartbeat() {
@@ -645,85 +905,206 @@ public class RedisStateStore implements NetworkStateStore {
                         });
             }
         }, timing.getHeartbeatIntervalSeconds(), timing.getHeartbeatIntervalSeconds(), TimeUnit.SECONDS);
+
+        // Expired servers' locations are dropped by the snapshot script; the sweep only catches
+        // those it missed. Jittered so the nodes of a network don't all sweep at once.
+        long pruneMinutes = PRUNE_INTERVAL_MINUTES / 2 + ThreadLocalRandom.current().nextLong(PRUNE_INTERVAL_MINUTES / 2 + 1);
+        pruneTask = heartbeatScheduler.scheduleAtFixedRate(() -> {
+            if (connected) {
+                pruneLocations("0", 0);
+            }
+        }, pruneMinutes, PRUNE_INTERVAL_MINUTES, TimeUnit.MINUTES);
     }
 
+    /**
+     * Refresh the cache now and then periodically. The stream keeps the cache current between
+     * refreshes, so each refresh that finds nothing to correct doubles the interval, up to
+     * {@link NetworkConfig.TimingConfig#getMaxCacheRefreshSeconds()}; {@link #requestResync()}
+     * starts over from {@link NetworkConfig.TimingConfig#getCacheRefreshSeconds()}.
+     */
     private void startCacheRefresh() {
-        refreshCache();
+        hubScheduler.execute(() -> refresh(timing.getCacheRefreshMillis()));
+    }
+
+    /**
+     * Must be called on the hub scheduler.
+     */
+    private void scheduleCacheRefresh(long delayMillis) {
+        ScheduledFuture<?> previous = refreshTask;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        refreshTask = hubScheduler.schedule(() -> {
+            if (!connected) {
+                scheduleCacheRefresh(delayMillis);
+                return;
+            }
+            refresh(Math.min(delayMillis * 2, timing.getMaxCacheRefreshMillis()));
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
 
-        refreshTask = hubScheduler.scheduleAtFixedRate(() -> {
+    /**
+     * Refresh the cache as soon as possible, for changes the stream did not deliver. Requests
+     * made before a refresh reads the snapshot join it; those made while it runs share one
+     * follow-up refresh.
+     */
+    private void requestResync() {
+        if (!resyncPending.compareAndSet(false, true)) {
+            return;
+        }
+        hubScheduler.execute(() -> {
             if (connected) {
-                refreshCache();
+                refresh(timing.getCacheRefreshMillis());
+            } else {
+                resyncPending.set(false);
+                scheduleCacheRefresh(timing.getCacheRefreshMillis());
+            }
+        });
+    }
+
+    /**
+     * Refresh the cache, then schedule the next refresh in {@code inStepDelayMillis} if nothing
+     * needed correcting, or start over from the shortest interval. Does nothing while a refresh
+     * is running; a resync requested meanwhile runs as soon as it completes. Must be called on
+     * the hub scheduler.
+     */
+    private void refresh(long inStepDelayMillis) {
+        if (refreshing) {
+            return;
+        }
+        refreshing = true;
+        resyncPending.set(false);
+        ScheduledFuture<?> previous = refreshTask;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        refreshCache().thenAcceptAsync(inStep -> {
+            refreshing = false;
+            if (resyncPending.get()) {
+                refresh(timing.getCacheRefreshMillis());
+            } else {
+                scheduleCacheRefresh(inStep ? inStepDelayMillis : timing.getCacheRefreshMillis());
             }
-        }, timing.getCacheRefreshSeconds(), timing.getCacheRefreshSeconds(), TimeUnit.SECONDS);
+        }, hubScheduler);
     }
 
-    private void refreshCache() {
-        fetchFullSnapshot()
-                .thenAccept(snapshot -> {
-                    cache.refresh(snapshot);
-                    logger.at(Level.FINE).log("Cache refreshed: %d servers, %d players",
-                            snapshot.getServerCount(), snapshot.getTotalPlayerCount());
+    /**
+     * Sweep the locations hash from {@code cursor}, one {@value #PRUNE_CHUNK_LOCATIONS}-entry
+     * chunk per round trip.
+     */
+    private void pruneLocations(@Nonnull String cursor, long removedSoFar) {
+        String[] keys = {key("locations")};
+        String[] args = {cursor, String.valueOf(PRUNE_CHUNK_LOCATIONS), networkId};
+
+        this.<List<Object>>evalWithRetry(() -> pruneLocationsScriptSha, PRUNE_LOCATIONS_SCRIPT, ScriptOutputType.MULTI,
+                        keys, args)
+                .thenAccept(reply -> {
+                    String next = (String) reply.get(0);
+                    long removed = removedSoFar + ((Number) reply.get(1)).longValue();
+                    if (!"0".equals(next) && connected) {
+                        pruneLocations(next, removed);
+                    } else if (removed > 0) {
+                        logger.at(Level.FINE).log("Pruned %d player locations of offline servers", removed);
+                    }
                 })
                 .exceptionally(e -> {
-                    logger.at(Level.WARNING).withCause(e).log("Cache refresh failed");
+                    logger.at(Level.WARNING).withCause(e).log("Pruning player locations failed");
                     return null;
                 });
     }
 
-    private CompletableFuture<NetworkSnapshot> fetchFullSnapshot() {
-        return commands.smembers(key("servers"))
-                .thenCompose(serverIds -> {
-                    if (serverIds.isEmpty()) {
-                        return CompletableFuture.completedFuture(NetworkSnapshot.empty());
+    /**
+     * Merge a full snapshot into the cache and deliver the joins and leaves the stream missed.
+     *
+     * @return whether the cache was already in step; false if the refresh failed
+     */
+    private CompletableFuture<Boolean> refreshCache() {
+        return fetchFullSnapshot()
+                .thenApply(fetched -> {
+                    NetworkSnapshot snapshot = fetched.snapshot();
+                    List<NetworkEvent> missed = cache.refresh(snapshot, fetched.version());
+                    for (NetworkEvent event : missed) {
+                        notifyListeners(event);
                     }
+                    logger.at(Level.FINE).log("Cache refreshed: %d servers, %d players, %d missed changes",
+                            snapshot.getServerCount(), snapshot.getTotalPlayerCount(), missed.size());
+                    return missed.isEmpty();
+                })
+                .exceptionally(e -> {
+                    logger.at(Level.WARNING).withCause(e).log("Cache refresh failed");
+                    return false;
+                });
+    }
+
+    /**
+     * Read the whole network state with {@link #SNAPSHOT_SCRIPT}, one round trip per
+     * {@value #SNAPSHOT_CHUNK_SERVERS} servers. The snapshot reflects every event up to the
+     * newest one in the stream when the first chunk was read, which is its version.
+     */
+    private CompletableFuture<VersionedSnapshot> fetchFullSnapshot() {
+        return fetchSnapshotFrom("0", 0, new LinkedHashMap<>());
+    }
+
+    private CompletableFuture<VersionedSnapshot> fetchSnapshotFrom(@Nonnull String cursor, long version,
+                                                                   @Nonnull Map<String, ServerWithPlayers> fetched) {
+        String[] keys = {
+                key("servers"),
+                key("events"),
+                key("locations")
+        };
+        String[] args = {
+                cursor,
+                String.valueOf(SNAPSHOT_CHUNK_SERVERS),
+                networkId,
+                String.valueOf(STREAM_MAX_LEN)
+        };
 
-                    List<CompletableFuture<ServerWithPlayers>> futures = new ArrayList<>();
-                    for (String sid : serverIds) {
-                        futures.add(fetchServerWithPlayers(sid));
+        return this.<List<Object>>evalWithRetry(() -> snapshotScriptSha, SNAPSHOT_SCRIPT, ScriptOutputType.MULTI,
+                        keys, args)
+                .thenCompose(reply -> {
+                    String newest = (String) reply.get(1);
+                    long snapshotVersion = newest.isEmpty() ? version : streamVersion(newest);
+                    for (int i = 2; i + 2 < reply.size(); i += 3) {
+                        String sid = (String) reply.get(i);
+                        ServerState server = parseServerState(sid, toMap(reply.get(i + 1)));
+                        List<PlayerInfo> players = parsePlayerMapWithServer(toMap(reply.get(i + 2)), sid, server.serverName());
+                        // SSCAN may return a server twice; the later read wins.
+                        fetched.put(sid, new ServerWithPlayers(server, players));
                     }
 
-                    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                            .thenApply(v -> {
-                                List<ServerState> servers = new ArrayList<>();
-                                List<PlayerInfo> players = new ArrayList<>();
-                                for (CompletableFuture<ServerWithPlayers> f : futures) {
-                                    ServerWithPlayers swp = f.join();
-                                    if (swp != null && swp.server != null) {
-                                        servers.add(swp.server);
-                                        players.addAll(swp.players);
-                                    }
-                                }
-                                return NetworkSnapshot.of(servers, players);
-                            });
-                })
-                .toCompletableFuture();
-    }
+                    String next = (String) reply.get(0);
+                    if (!"0".equals(next)) {
+                        return fetchSnapshotFrom(next, snapshotVersion, fetched);
+                    }
 
-    private CompletableFuture<ServerWithPlayers> fetchServerWithPlayers(@Nonnull String serverId) {
-        var serverFuture = commands.hgetall(key("server", serverId));
-        var playersFuture = commands.hgetall(key("server", serverId, "players"));
+                    List<ServerState> servers = new ArrayList<>(fetched.size());
+                    List<PlayerInfo> players = new ArrayList<>();
+                    for (ServerWithPlayers swp : fetched.values()) {
+                        servers.add(swp.server);
+                        players.addAll(swp.players);
+                    }
+                    return CompletableFuture.completedFuture(
+                            new VersionedSnapshot(NetworkSnapshot.of(servers, players), snapshotVersion));
+                });
+    }
 
-        return serverFuture.thenCombine(playersFuture, (serverMap, playersMap) -> {
-            if (serverMap.isEmpty()) {
-                commands.srem(key("servers"), serverId)
-                        .thenCompose(removed -> {
-                            if (removed > 0) {
-                                logger.at(Level.FINE).log("Removed orphaned server from set: %s", serverId);
-                                String event = GSON.toJson(Map.of("type", "server_offline", "serverId", serverId));
-                                return commands.xadd(key("events"), "data", event);
-                            }
-                            return CompletableFuture.completedFuture(null);
-                        });
-                return null;
-            }
-            ServerState server = parseServerState(serverId, serverMap);
-            List<PlayerInfo> players = parsePlayerMapWithServer(playersMap, serverId, server.serverName());
-            return new ServerWithPlayers(server, players);
-        }).toCompletableFuture();
+    /**
+     * Convert a flat HGETALL reply returned from a script into a map.
+     */
+    @Nonnull
+    private static Map<String, String> toMap(@Nonnull Object flat) {
+        List<?> list = (List<?>) flat;
+        Map<String, String> map = new HashMap<>(list.size());
+        for (int i = 0; i + 1 < list.size(); i += 2) {
+            map.put((String) list.get(i), (String) list.get(i + 1));
+        }
+        return map;
     }
 
     private record ServerWithPlayers(ServerState server, List<PlayerInfo> players) {}
 
+    private record VersionedSnapshot(NetworkSnapshot snapshot, long version) {}
+
     private ServerState parseServerState(@Nonnull String serverId, @Nonnull Map<String, String> map) {
         return ServerState.builder(serverId)
                 .serverName(map.getOrDefault("serverName", serverId))
@@ -805,5 +1186,6 @@ public class RedisStateStore implements NetworkStateStore {
         String serverId;
         String serverName;
         String username;
+        Map<String, String> state;
     }
 }
@@ -0,0 +1,135 @@
+package dev.monitoringhytale.query.protocol;
+
+import dev.monitoringhytale.query.network.model.NetworkSnapshot;
+import dev.monitoringhytale.query.protocol.v1.V1ResponseBuilder;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import dev.monitoringhytale.query.protocol.v2.V2ResponseBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Caches encoded BASIC responses (and V1 FULL) until the {@link StateGeneration} moves on.
+ *
+ * <p>V2 entries keep the whole encoded packet. Each query copies it into one pooled buffer and
+ * patches in its own request ID; the payload's version tag is the generation the entry was
+ * built at. V1 responses carry no request ID and are served as a duplicate of the cached packet.
+ *
+ * <p>Entries also expire after {@link #MAX_AGE_MILLIS}, which bounds staleness for values the
+ * plugin cannot observe changing (e.g. the server config being edited at runtime).
+ */
+public final class ResponseCache {
+
+    public static final long MAX_AGE_MILLIS = 1000;
+    private static final long MAX_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MILLIS);
+
+    private enum Kind {
+        V2_BASIC,
+        V2_BASIC_NETWORK,
+        V1_BASIC,
+        V1_FULL,
+        V1_BASIC_NETWORK,
+        V1_FULL_NETWORK
+    }
+
+    private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(Kind.values().length);
+
+    @Nonnull
+    public ByteBuf v2Basic(@Nonnull ByteBufAllocator alloc, int requestId, short extraFlags) {
+        Entry entry = getOrBuild(alloc, Kind.V2_BASIC,
+                (a, generation) -> V2ResponseBuilder.buildBasicResponse(a, 0, (short) 0, generation));
+        return entry.v2Response(alloc, requestId, extraFlags);
+    }
+
+    @Nonnull
+    public ByteBuf v2Basic(@Nonnull ByteBufAllocator alloc, int requestId,
+                           @Nonnull Supplier<NetworkSnapshot> snapshot) {
+        Entry entry = getOrBuild(alloc, Kind.V2_BASIC_NETWORK,
+                (a, generation) -> V2ResponseBuilder.buildBasicResponse(a, 0, snapshot.get(), generation));
+        return entry.v2Response(alloc, requestId, (short) 0);
+    }
+
+    @Nonnull
+    public ByteBuf v1Basic(@Nonnull ByteBufAllocator alloc) {
+        return getOrBuild(alloc, Kind.V1_BASIC, (a, generation) -> V1ResponseBuilder.buildBasicResponse(a)).v1Response();
+    }
+
+    @Nonnull
+    public ByteBuf v1Full(@Nonnull ByteBufAllocator alloc, @Nonnull PlayerListArena players) {
+        return getOrBuild(alloc, Kind.V1_FULL,
+                (a, generation) -> V1ResponseBuilder.buildFullResponse(a, players)).v1Response();
+    }
+
+    @Nonnull
+    public ByteBuf v1Basic(@Nonnull ByteBufAllocator alloc, @Nonnull Supplier<NetworkSnapshot> snapshot) {
+        return getOrBuild(alloc, Kind.V1_BASIC_NETWORK,
+                (a, generation) -> V1ResponseBuilder.buildBasicResponse(a, snapshot.get())).v1Response();
+    }
+
+    @Nonnull
+    public ByteBuf v1Full(@Nonnull ByteBufAllocator alloc, @Nonnull Supplier<NetworkSnapshot> snapshot) {
+        return getOrBuild(alloc, Kind.V1_FULL_NETWORK,
+                (a, generation) -> V1ResponseBuilder.buildFullResponse(a, snapshot.get())).v1Response();
+    }
+
+    @Nonnull
+    private Entry getOrBuild(@Nonnull ByteBufAllocator alloc, @Nonnull Kind kind,
+                             @Nonnull Builder builder) {
+        // Read the generation before any state so a concurrent change can only make the entry
+        // look older than it is, never newer.
+        long generation = StateGeneration.current();
+        long now = System.nanoTime();
+
+        Entry entry = entries.get(kind.ordinal());
+        if (entry != null && entry.generation == generation && now - entry.createdNanos < MAX_AGE_NANOS) {
+            return entry;
+        }
+
+        ByteBuf built = builder.build(alloc, generation);
+        try {
+            byte[] bytes = ByteBufUtil.getBytes(built);
+            entry = new Entry(generation, now, Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes)));
+        } finally {
+            built.release();
+        }
+
+        entries.set(kind.ordinal(), entry);
+        return entry;
+    }
+
+    @FunctionalInterface
+    private interface Builder {
+        @Nonnull
+        ByteBuf build(@Nonnull ByteBufAllocator alloc, long generation);
+    }
+
+    private record Entry(long generation, long createdNanos, @Nonnull ByteBuf packet) {
+
+        @Nonnull
+        ByteBuf v2Response(@Nonnull ByteBufAllocator alloc, int requestId, short extraFlags) {
+            // One pooled copy rather than header + slice in a composite: pooled buffers are
+            // recycled, while the composite, its components and the slice are new objects.
+            int size = packet.readableBytes();
+            ByteBuf response = alloc.buffer(size);
+            response.writeBytes(packet, 0, size);
+            if (extraFlags != 0) {
+                response.setShortLE(V2Protocol.OFFSET_RESPONSE_FLAGS,
+                        response.getShortLE(V2Protocol.OFFSET_RESPONSE_FLAGS) | extraFlags);
+            }
+            response.setIntLE(V2Protocol.OFFSET_RESPONSE_REQUEST_ID, requestId);
+            return response;
+        }
+
+        @Nonnull
+        ByteBuf v1Response() {
+            return packet.retainedDuplicate();
+        }
+    }
+}
@@ -15,49 +15,105 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Source of the server info served by queries.
+ *
+ * <p>The live lookups (server config, manifest, network interfaces, plugin manager) only run in
+ * {@link #refresh()}, which is called on a timer; the player count is pushed in from player
+ * events. Queries read the published {@link ServerInfoSnapshot}, so they never touch game server
+ * internals. Publishing a snapshot that differs from the previous one bumps the
+ * {@link StateGeneration}.
+ */
 public final class ServerDataProvider {
 
     private static final int DEFAULT_PORT = 5520;
 
+    private static final Object REFRESH_LOCK = new Object();
+
     private static volatile ServerInfoConfig config;
+    private static volatile ServerInfoSnapshot snapshot;
 
     private ServerDataProvider() {
     }
 
     public static void setConfig(@Nullable ServerInfoConfig config) {
         ServerDataProvider.config = config;
+        if (snapshot != null) {
+            refresh();
+        }
     }
 
+    /**
+     * The current snapshot. Captured on first use if nothing has been published yet.
+     */
     @Nonnull
-    public static String getServerName() {
-        ServerInfoConfig cfg = config;
-        if (cfg != null && cfg.getServerName() != null) {
-            return cfg.getServerName();
+    public static ServerInfoSnapshot snapshot() {
+        ServerInfoSnapshot current = snapshot;
+        return current != null ? current : refresh();
+    }
+
+    /**
+     * Re-read everything but the player count from the server and publish it if anything changed.
+     */
+    @Nonnull
+    public static ServerInfoSnapshot refresh() {
+        ServerInfoSnapshot captured = capture(config);
+        synchronized (REFRESH_LOCK) {
+            ServerInfoSnapshot current = snapshot;
+            ServerInfoSnapshot next = captured.withPlayerCount(
+                    current != null ? current.playerCount() : Universe.get().getPlayerCount());
+            if (current != null && current.contentEquals(next)) {
+                return current;
+            }
+            snapshot = next;
+            StateGeneration.bump();
+            return next;
+        }
+    }
+
+    /**
+     * Publish a snapshot built by the caller instead of one read from the server, such as fixed
+     * data for benchmarks. Later refreshes replace everything but its player count.
+     */
+    public static void publish(@Nonnull ServerInfoSnapshot next) {
+        synchronized (REFRESH_LOCK) {
+            snapshot = next;
+        }
+        StateGeneration.bump();
+    }
+
+    /**
+     * Publish a new player count without re-reading anything else, and bump the
+     * {@link StateGeneration} since the player list changed with it.
+     */
+    public static void setPlayerCount(int playerCount) {
+        ServerInfoSnapshot captured = snapshot != null ? null : capture(config);
+        synchronized (REFRESH_LOCK) {
+            ServerInfoSnapshot current = snapshot != null ? snapshot : captured;
+            snapshot = current.withPlayerCount(playerCount);
         }
-        return HytaleServer.get().getConfig().getServerName();
+        StateGeneration.bump();
+    }
+
+    @Nonnull
+    public static String getServerName() {
+        return snapshot().serverName();
     }
 
     @Nonnull
     public static String getMotd() {
-        ServerInfoConfig cfg = config;
-        if (cfg != null && cfg.getMotd() != null) {
-            return cfg.getMotd();
-        }
-        return HytaleServer.get().getConfig().getMotd();
+        return snapshot().motd();
     }
 
     public static int getPlayerCount() {
-        return Universe.get().getPlayerCount();
+        return snapshot().playerCount();
     }
 
     public static int getMaxPlayers() {
-        ServerInfoConfig cfg = config;
-        if (cfg != null && cfg.getMaxPlayers() != null) {
-            return cfg.getMaxPlayers();
-        }
-        return Math.max(HytaleServer.get().getConfig().getMaxPlayers(), 0);
+        return snapshot().maxPlayers();
     }
 
     @Nonnull
@@ -65,48 +121,27 @@ public final class ServerDataProvider {
         return Universe.get().getPlayers();
     }
 
-    @Nonnull
-    public static List<PluginBase> getPlugins() {
-        return PluginManager.get().getPlugins();
-    }
-
     @Nullable
     public static String getHost() {
-        ServerInfoConfig cfg = config;
-        if (cfg != null && cfg.getHost() != null) {
-            return cfg.getHost();
-        }
-        return null;
+        return snapshot().host();
     }
 
     public static int getHostPort() {
-        ServerInfoConfig cfg = config;
-        if (cfg != null && cfg.getPort() != null) {
-            return cfg.getPort();
-        }
-        try {
-            InetSocketAddress address = ServerManager.get().getNonLoopbackAddress();
-            if (address != null) {
-                return address.getPort();
-            }
-        } catch (SocketException ignored) {
-        }
-        return DEFAULT_PORT;
+        return snapshot().hostPort();
     }
 
     @Nonnull
     public static String getVersion() {
-        String version = ManifestUtil.getImplementationVersion();
-        return version != null ? version : "unknown";
+        return snapshot().version();
     }
 
     public static int getProtocolVersion() {
-        return ProtocolSettings.PROTOCOL_VERSION;
+        return snapshot().protocolVersion();
     }
 
     @Nonnull
     public static String getProtocolHash() {
-        return ProtocolSettings.PROTOCOL_HASH;
+        return snapshot().protocolHash();
     }
 
     @Nonnull
@@ -119,4 +154,40 @@ public final class ServerDataProvider {
     public static String getPluginVersion(@Nonnull PluginBase plugin) {
         return plugin.getManifest().getVersion().toString();
     }
+
+    @Nonnull
+    private static ServerInfoSnapshot capture(@Nullable ServerInfoConfig cfg) {
+        var serverConfig = HytaleServer.get().getConfig();
+
+        String serverName = cfg != null && cfg.getServerName() != null ? cfg.getServerName() : serverConfig.getServerName();
+        String motd = cfg != null && cfg.getMotd() != null ? cfg.getMotd() : serverConfig.getMotd();
+        int maxPlayers = cfg != null && cfg.getMaxPlayers() != null
+                ? cfg.getMaxPlayers()
+                : Math.max(serverConfig.getMaxPlayers(), 0);
+        String host = cfg != null ? cfg.getHost() : null;
+        int hostPort = cfg != null && cfg.getPort() != null ? cfg.getPort() : lookupHostPort();
+
+        String version = ManifestUtil.getImplementationVersion();
+
+        List<PluginBase> plugins = PluginManager.get().getPlugins();
+        List<ServerInfoSnapshot.Plugin> pluginInfo = new ArrayList<>(plugins.size());
+        for (PluginBase plugin : plugins) {
+            pluginInfo.add(new ServerInfoSnapshot.Plugin(getPluginId(plugin), getPluginVersion(plugin), plugin.isEnabled()));
+        }
+
+        return new ServerInfoSnapshot(serverName, motd, 0, maxPlayers, host, hostPort,
+                version != null ? version : "unknown", ProtocolSettings.PROTOCOL_VERSION,
+                ProtocolSettings.PROTOCOL_HASH, pluginInfo);
+    }
+
+    private static int lookupHostPort() {
+        try {
+            InetSocketAddress address = ServerManager.get().getNonLoopbackAddress();
+            if (address != null) {
+                return address.getPort();
+            }
+        } catch (SocketException ignored) {
+        }
+        return DEFAULT_PORT;
+    }
 }
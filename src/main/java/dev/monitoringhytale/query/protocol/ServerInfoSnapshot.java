@@ -0,0 +1,208 @@
+package dev.monitoringhytale.query.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable view of the server info served by queries, with the strings already encoded as
+ * UTF-8. Published by {@link ServerDataProvider}; the query path reads nothing else.
+ */
+public final class ServerInfoSnapshot {
+
+    /**
+     * One installed plugin, as listed in V1 FULL responses.
+     */
+    public record Plugin(@Nonnull String id, @Nonnull String version, boolean enabled) {
+    }
+
+    private final String serverName;
+    private final String motd;
+    private final int playerCount;
+    private final int maxPlayers;
+    @Nullable
+    private final String host;
+    private final int hostPort;
+    private final String version;
+    private final int protocolVersion;
+    private final String protocolHash;
+
+    private final byte[] serverNameUtf8;
+    private final byte[] motdUtf8;
+    @Nullable
+    private final byte[] hostUtf8;
+    private final byte[] versionUtf8;
+    private final byte[] protocolHashUtf8;
+    private final byte[] pluginList;
+    private final int serverInfoLength;
+
+    public ServerInfoSnapshot(@Nonnull String serverName, @Nonnull String motd, int playerCount, int maxPlayers,
+                              @Nullable String host, int hostPort, @Nonnull String version,
+                              int protocolVersion, @Nonnull String protocolHash, @Nonnull List<Plugin> plugins) {
+        this(serverName, motd, playerCount, maxPlayers, host, hostPort, version, protocolVersion, protocolHash,
+                encodePluginList(plugins));
+    }
+
+    private ServerInfoSnapshot(@Nonnull String serverName, @Nonnull String motd, int playerCount, int maxPlayers,
+                               @Nullable String host, int hostPort, @Nonnull String version,
+                               int protocolVersion, @Nonnull String protocolHash, @Nonnull byte[] pluginList) {
+        this.serverName = serverName;
+        this.motd = motd;
+        this.playerCount = playerCount;
+        this.maxPlayers = maxPlayers;
+        this.host = host;
+        this.hostPort = hostPort;
+        this.version = version;
+        this.protocolVersion = protocolVersion;
+        this.protocolHash = protocolHash;
+        this.serverNameUtf8 = serverName.getBytes(StandardCharsets.UTF_8);
+        this.motdUtf8 = motd.getBytes(StandardCharsets.UTF_8);
+        this.hostUtf8 = host != null ? host.getBytes(StandardCharsets.UTF_8) : null;
+        this.versionUtf8 = version.getBytes(StandardCharsets.UTF_8);
+        this.protocolHashUtf8 = protocolHash.getBytes(StandardCharsets.UTF_8);
+        this.pluginList = pluginList;
+        this.serverInfoLength = 2 + serverNameUtf8.length + 2 + motdUtf8.length + 4 + 4
+                + 2 + versionUtf8.length + 4 + 2 + protocolHashUtf8.length
+                + (hostUtf8 != null ? 2 + hostUtf8.length + 2 : 0);
+    }
+
+    @Nonnull
+    public ServerInfoSnapshot withPlayerCount(int playerCount) {
+        if (playerCount == this.playerCount) {
+            return this;
+        }
+        return new ServerInfoSnapshot(serverName, motd, playerCount, maxPlayers, host, hostPort, version,
+                protocolVersion, protocolHash, pluginList);
+    }
+
+    /**
+     * Whether both snapshots would produce the same responses.
+     */
+    public boolean contentEquals(@Nonnull ServerInfoSnapshot other) {
+        return playerCount == other.playerCount
+                && maxPlayers == other.maxPlayers
+                && hostPort == other.hostPort
+                && protocolVersion == other.protocolVersion
+                && serverName.equals(other.serverName)
+                && motd.equals(other.motd)
+                && Objects.equals(host, other.host)
+                && version.equals(other.version)
+                && protocolHash.equals(other.protocolHash)
+                && Arrays.equals(pluginList, other.pluginList);
+    }
+
+    @Nonnull
+    public String serverName() {
+        return serverName;
+    }
+
+    @Nonnull
+    public String motd() {
+        return motd;
+    }
+
+    public int playerCount() {
+        return playerCount;
+    }
+
+    public int maxPlayers() {
+        return maxPlayers;
+    }
+
+    @Nullable
+    public String host() {
+        return host;
+    }
+
+    public int hostPort() {
+        return hostPort;
+    }
+
+    @Nonnull
+    public String version() {
+        return version;
+    }
+
+    public int protocolVersion() {
+        return protocolVersion;
+    }
+
+    @Nonnull
+    public String protocolHash() {
+        return protocolHash;
+    }
+
+    /**
+     * Size of the V2 SERVER_INFO value: the strings, counts and versions, plus host and port if set.
+     */
+    public int serverInfoLength() {
+        return serverInfoLength;
+    }
+
+    public void writeServerName(@Nonnull ByteBuf buf) {
+        writeString(buf, serverNameUtf8);
+    }
+
+    public void writeMotd(@Nonnull ByteBuf buf) {
+        writeString(buf, motdUtf8);
+    }
+
+    /**
+     * Write the host; only valid when {@link #host()} is not null.
+     */
+    public void writeHost(@Nonnull ByteBuf buf) {
+        writeString(buf, Objects.requireNonNull(hostUtf8));
+    }
+
+    public void writeVersion(@Nonnull ByteBuf buf) {
+        writeString(buf, versionUtf8);
+    }
+
+    public void writeProtocolHash(@Nonnull ByteBuf buf) {
+        writeString(buf, protocolHashUtf8);
+    }
+
+    /**
+     * Write the plugin list in the V1 FULL layout: count, then id, version and enabled flag per plugin.
+     */
+    public void writePluginList(@Nonnull ByteBuf buf) {
+        buf.writeBytes(pluginList);
+    }
+
+    private static void writeString(@Nonnull ByteBuf buf, @Nonnull byte[] utf8) {
+        buf.writeShortLE(utf8.length);
+        buf.writeBytes(utf8);
+    }
+
+    @Nonnull
+    private static byte[] encodePluginList(@Nonnull List<Plugin> plugins) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeIntLE(out, plugins.size());
+        for (Plugin plugin : plugins) {
+            writeString(out, plugin.id());
+            writeString(out, plugin.version());
+            out.write(plugin.enabled() ? 1 : 0);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeString(@Nonnull ByteArrayOutputStream out, @Nonnull String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes.length & 0xFF);
+        out.write((bytes.length >>> 8) & 0xFF);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeIntLE(@Nonnull ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+}
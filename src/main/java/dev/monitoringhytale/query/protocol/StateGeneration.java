@@ -0,0 +1,40 @@
+package dev.monitoringhytale.query.protocol;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic counter of state changes that affect query responses.
+ *
+ * <p>Bumped after a player joins or leaves, the server info config changes or the
+ * network cache is updated. Encoded responses stamped with an older generation are stale.
+ *
+ * <p>Clients see a generation as a version tag, salted per process so that a tag from before a
+ * restart does not match the restarted server's generation of the same number.
+ */
+public final class StateGeneration {
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static final long TAG_SALT = new SecureRandom().nextLong();
+
+    private StateGeneration() {
+    }
+
+    public static long current() {
+        return GENERATION.get();
+    }
+
+    /**
+     * Get the version tag sent to clients for {@code generation}.
+     */
+    public static long versionTag(long generation) {
+        return generation ^ TAG_SALT;
+    }
+
+    /**
+     * Advance the generation. Must be called after the change is visible to readers.
+     */
+    public static long bump() {
+        return GENERATION.incrementAndGet();
+    }
+}
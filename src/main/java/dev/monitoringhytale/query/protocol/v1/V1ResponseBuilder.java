@@ -1,10 +1,10 @@
 package dev.monitoringhytale.query.protocol.v1;
 
-import com.hypixel.hytale.server.core.plugin.PluginBase;
-import com.hypixel.hytale.server.core.universe.PlayerRef;
 import dev.monitoringhytale.query.network.model.NetworkSnapshot;
 import dev.monitoringhytale.query.network.model.PlayerInfo;
 import dev.monitoringhytale.query.protocol.ServerDataProvider;
+import dev.monitoringhytale.query.protocol.ServerInfoSnapshot;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
 import dev.monitoringhytale.query.protocol.v2.V2Protocol;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
@@ -36,14 +36,14 @@ public final class V1ResponseBuilder {
     }
 
     @Nonnull
-    public static ByteBuf buildFullResponse(@Nonnull ByteBufAllocator alloc) {
+    public static ByteBuf buildFullResponse(@Nonnull ByteBufAllocator alloc, @Nonnull PlayerListArena players) {
         ByteBuf buf = alloc.buffer();
 
         buf.writeBytes(V1Protocol.RESPONSE_MAGIC);
         buf.writeByte(V1Protocol.TYPE_FULL);
 
         writeServerInfo(buf);
-        writePlayerList(buf);
+        players.writeAll(buf);
         writePluginList(buf);
         writeCapabilities(buf, V1Protocol.CAP_V2_PROTOCOL);
 
@@ -79,35 +79,24 @@ public final class V1ResponseBuilder {
     }
 
     private static void writeServerInfo(@Nonnull ByteBuf buf) {
-        writeString(buf, ServerDataProvider.getServerName());
-        writeString(buf, ServerDataProvider.getMotd());
-        buf.writeIntLE(ServerDataProvider.getPlayerCount());
-        buf.writeIntLE(ServerDataProvider.getMaxPlayers());
-        buf.writeShortLE(ServerDataProvider.getHostPort());
-        writeString(buf, ServerDataProvider.getVersion());
-        buf.writeIntLE(ServerDataProvider.getProtocolVersion());
-        writeString(buf, ServerDataProvider.getProtocolHash());
+        ServerInfoSnapshot info = ServerDataProvider.snapshot();
+        writeServerInfo(buf, info, info.playerCount(), info.maxPlayers());
     }
 
     private static void writeNetworkServerInfo(@Nonnull ByteBuf buf, @Nonnull NetworkSnapshot snapshot) {
-        writeString(buf, ServerDataProvider.getServerName());
-        writeString(buf, ServerDataProvider.getMotd());
-        buf.writeIntLE(snapshot.getTotalPlayerCount());
-        buf.writeIntLE(snapshot.getTotalMaxPlayers());
-        buf.writeShortLE(ServerDataProvider.getHostPort());
-        writeString(buf, ServerDataProvider.getVersion());
-        buf.writeIntLE(ServerDataProvider.getProtocolVersion());
-        writeString(buf, ServerDataProvider.getProtocolHash());
+        writeServerInfo(buf, ServerDataProvider.snapshot(), snapshot.getTotalPlayerCount(), snapshot.getTotalMaxPlayers());
     }
 
-    private static void writePlayerList(@Nonnull ByteBuf buf) {
-        List<PlayerRef> players = ServerDataProvider.getPlayers();
-
-        buf.writeIntLE(players.size());
-        for (PlayerRef player : players) {
-            writeString(buf, player.getUsername());
-            writeUUID(buf, player.getUuid());
-        }
+    private static void writeServerInfo(@Nonnull ByteBuf buf, @Nonnull ServerInfoSnapshot info,
+                                        int playerCount, int maxPlayers) {
+        info.writeServerName(buf);
+        info.writeMotd(buf);
+        buf.writeIntLE(playerCount);
+        buf.writeIntLE(maxPlayers);
+        buf.writeShortLE(info.hostPort());
+        info.writeVersion(buf);
+        buf.writeIntLE(info.protocolVersion());
+        info.writeProtocolHash(buf);
     }
 
     private static void writeNetworkPlayerList(@Nonnull ByteBuf buf, @Nonnull NetworkSnapshot snapshot) {
@@ -121,14 +110,7 @@ public final class V1ResponseBuilder {
     }
 
     private static void writePluginList(@Nonnull ByteBuf buf) {
-        List<PluginBase> plugins = ServerDataProvider.getPlugins();
-
-        buf.writeIntLE(plugins.size());
-        for (PluginBase plugin : plugins) {
-            writeString(buf, ServerDataProvider.getPluginId(plugin));
-            writeString(buf, ServerDataProvider.getPluginVersion(plugin));
-            buf.writeBoolean(plugin.isEnabled());
-        }
+        ServerDataProvider.snapshot().writePluginList(buf);
     }
 
     private static void writeString(@Nonnull ByteBuf buf, @Nonnull String str) {
@@ -0,0 +1,136 @@
+package dev.monitoringhytale.query.protocol.v2;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring of recent player joins and leaves, for PLAYERS_DELTA queries.
+ *
+ * <p>Every change gets the next 32-bit sequence number, and a client's cursor is the last
+ * sequence it has seen. The sequence starts at a random value, so a cursor from before a restart
+ * or from another server almost never lands inside the retained window and gets a resync instead
+ * of wrong deltas.
+ *
+ * <p>Changes are stored already in the wire format of the player delta TLV. Writers serialize on
+ * a lock and publish each change before advancing the head; readers never lock, and detect a
+ * change overwritten while they read it by its sequence number.
+ */
+public final class PlayerChangeLog {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicReferenceArray<Change> ring;
+    private final int mask;
+
+    private volatile int head = ThreadLocalRandom.current().nextInt();
+
+    public PlayerChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Changes retained; rounded up to a power of two
+     */
+    public PlayerChangeLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public void join(@Nonnull UUID uuid, @Nonnull String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] entry = new byte[1 + 16 + 2 + name.length];
+        encode(entry, V2Protocol.DELTA_OP_JOIN, uuid);
+        entry[17] = (byte) name.length;
+        entry[18] = (byte) (name.length >>> 8);
+        System.arraycopy(name, 0, entry, 19, name.length);
+        append(entry);
+    }
+
+    public void leave(@Nonnull UUID uuid) {
+        byte[] entry = new byte[1 + 16];
+        encode(entry, V2Protocol.DELTA_OP_LEAVE, uuid);
+        append(entry);
+    }
+
+    /**
+     * Get the sequence number of the latest change.
+     */
+    public int cursor() {
+        return head;
+    }
+
+    private void append(@Nonnull byte[] entry) {
+        writeLock.lock();
+        try {
+            int sequence = head + 1;
+            ring.set(sequence & mask, new Change(sequence, entry));
+            head = sequence;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Append the changes after {@code cursor}, oldest first, that fit in {@code budget} bytes.
+     */
+    @Nonnull
+    Delta writeSince(int cursor, int budget, @Nonnull ByteBuf out) {
+        int latest = head;
+        int behind = latest - cursor;
+        if (behind < 0 || behind > mask + 1) {
+            return Delta.resync(latest);
+        }
+
+        int written = 0;
+        int count = 0;
+        int sequence = cursor;
+        while (sequence != latest) {
+            Change change = ring.get((sequence + 1) & mask);
+            if (change == null || change.sequence != sequence + 1) {
+                // Lapped by writers while reading.
+                return count == 0 ? Delta.resync(head) : new Delta(false, sequence, count, true);
+            }
+            if (written + change.entry.length > budget) {
+                return new Delta(false, sequence, count, true);
+            }
+            out.writeBytes(change.entry);
+            written += change.entry.length;
+            count++;
+            sequence++;
+        }
+        return new Delta(false, sequence, count, false);
+    }
+
+    private static void encode(@Nonnull byte[] entry, byte op, @Nonnull UUID uuid) {
+        entry[0] = op;
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            entry[1 + i] = (byte) (msb >>> (56 - 8 * i));
+            entry[9 + i] = (byte) (lsb >>> (56 - 8 * i));
+        }
+    }
+
+    private record Change(int sequence, @Nonnull byte[] entry) {
+    }
+
+    /**
+     * The result of {@link #writeSince}: the cursor to continue from, and whether the client
+     * must refetch the full list or has more changes to fetch.
+     */
+    record Delta(boolean resync, int cursor, int count, boolean hasMore) {
+
+        @Nonnull
+        static Delta resync(int cursor) {
+            return new Delta(true, cursor, 0, false);
+        }
+    }
+}
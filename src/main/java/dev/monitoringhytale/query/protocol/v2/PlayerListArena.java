@@ -0,0 +1,346 @@
+package dev.monitoringhytale.query.protocol.v2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Pre-encoded player list entries for PLAYERS pagination and the V1 FULL list.
+ *
+ * <p>Entries are stored in one pooled direct buffer, already in the wire format of the player
+ * list TLV (u16 name length, UTF-8 name, 16-byte UUID). A start table maps every list index to
+ * its entry, and a page is copied out of the buffer in runs of adjacent entries.
+ *
+ * <p>Joins append in place while the buffer has room. A leave moves the last entry's start into
+ * the freed index and leaves its bytes behind as a hole, so it costs the same whatever the list
+ * size; the list is in join order except for those moves. Once holes make up more than half the
+ * buffer, the live entries are copied into a new one. Entry bytes are never overwritten, and
+ * starts are published through an {@link AtomicIntegerArray}, so a reader of an older layout at
+ * worst sees one entry that moved meanwhile.
+ *
+ * <p>Writers serialize on a lock and publish a {@link Layout}. Readers pin the layout they read,
+ * so a buffer is only returned to the pool once no reader is copying from it.
+ */
+public final class PlayerListArena {
+
+    private static final int ENTRY_OVERHEAD = 2 + 16;
+    private static final int MIN_CAPACITY = 1024;
+    private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final List<UUID> order = new ArrayList<>();
+    private final Map<UUID, Integer> indexes = new HashMap<>();
+
+    private volatile Layout layout = Layout.EMPTY;
+
+    /**
+     * Append a player at the end of the list. Does nothing if the player is already listed.
+     */
+    public void add(@Nonnull UUID uuid, @Nonnull String username) {
+        writeLock.lock();
+        try {
+            if (indexes.putIfAbsent(uuid, order.size()) != null) {
+                return;
+            }
+            order.add(uuid);
+            publish(layout.append(uuid, username));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a player. The last player in the list takes its place.
+     */
+    public void remove(@Nonnull UUID uuid) {
+        writeLock.lock();
+        try {
+            Integer index = indexes.remove(uuid);
+            if (index == null) {
+                return;
+            }
+            UUID last = order.remove(order.size() - 1);
+            if (index < order.size()) {
+                order.set(index, last);
+                indexes.put(last, index);
+            }
+            publish(layout.without(index));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replace the whole list, keeping the order of {@code players}.
+     */
+    public <T> void reset(@Nonnull List<T> players,
+                          @Nonnull Function<T, UUID> uuidFn, @Nonnull Function<T, String> usernameFn) {
+        writeLock.lock();
+        try {
+            order.clear();
+            indexes.clear();
+
+            List<byte[]> names = new ArrayList<>(players.size());
+            int size = 0;
+            for (T player : players) {
+                UUID uuid = uuidFn.apply(player);
+                if (indexes.putIfAbsent(uuid, order.size()) != null) {
+                    continue;
+                }
+                byte[] name = usernameFn.apply(player).getBytes(StandardCharsets.UTF_8);
+                order.add(uuid);
+                names.add(name);
+                size += ENTRY_OVERHEAD + name.length;
+            }
+
+            publish(Layout.encode(order, names, size));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        return layout.count;
+    }
+
+    /**
+     * Drop every entry and return the buffer to the pool once in-flight readers are done.
+     */
+    public void clear() {
+        writeLock.lock();
+        try {
+            order.clear();
+            indexes.clear();
+            publish(Layout.EMPTY);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Write the list header (total, count and start index, each an int, little-endian) and the
+     * entries from {@code offset} on that fit in {@code budget} bytes.
+     *
+     * @return Whether more players follow the written page
+     */
+    boolean writePage(@Nonnull ByteBuf buf, int offset, int budget) {
+        Layout current = acquire();
+        try {
+            int total = current.count;
+            int start = Math.max(0, Math.min(offset, total));
+            int headerIndex = buf.writerIndex();
+            buf.writeIntLE(total);
+            buf.writeIntLE(0);
+            buf.writeIntLE(start);
+            int end = current.writeEntries(buf, start, budget);
+            buf.setIntLE(headerIndex + 4, end - start);
+            return end < total;
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * Append the entry count (int, little-endian) followed by every entry, which is the V1 FULL
+     * player list layout.
+     */
+    public void writeAll(@Nonnull ByteBuf buf) {
+        Layout current = acquire();
+        try {
+            buf.writeIntLE(current.count);
+            current.writeEntries(buf, 0, Integer.MAX_VALUE);
+        } finally {
+            current.release();
+        }
+    }
+
+    @Nonnull
+    private Layout acquire() {
+        while (true) {
+            Layout current = layout;
+            if (current.tryRetain()) {
+                return current;
+            }
+        }
+    }
+
+    private void publish(@Nonnull Layout next) {
+        Layout previous = layout;
+        layout = next;
+        if (previous != next) {
+            previous.release();
+        }
+    }
+
+    /**
+     * One published state of the arena. Layouts created by appends and leaves share the buffer
+     * and the start table with their predecessor; each holds its own reference on the buffer.
+     */
+    private static final class Layout {
+
+        static final Layout EMPTY = new Layout(Unpooled.EMPTY_BUFFER, new AtomicIntegerArray(0), 0, 0, 0);
+
+        final ByteBuf entries;
+        final AtomicIntegerArray starts; // starts[i] = buffer index of entry i
+        final int count;
+        final int end; // end of the last entry appended to the buffer
+        final int holes; // bytes of removed entries before end
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Layout(@Nonnull ByteBuf entries, @Nonnull AtomicIntegerArray starts, int count, int end, int holes) {
+            this.entries = entries;
+            this.starts = starts;
+            this.count = count;
+            this.end = end;
+            this.holes = holes;
+        }
+
+        @Nonnull
+        static Layout encode(@Nonnull List<UUID> uuids, @Nonnull List<byte[]> names, int size) {
+            if (uuids.isEmpty()) {
+                return EMPTY;
+            }
+            int capacity = Math.max(MIN_CAPACITY, size + (size >> 1));
+            ByteBuf buf = ALLOC.directBuffer(capacity, capacity);
+            AtomicIntegerArray starts = new AtomicIntegerArray(uuids.size() + Math.max(16, uuids.size() >> 1));
+            for (int i = 0; i < uuids.size(); i++) {
+                starts.set(i, buf.writerIndex());
+                writeEntry(buf, uuids.get(i), names.get(i));
+            }
+            return new Layout(buf, starts, uuids.size(), buf.writerIndex(), 0);
+        }
+
+        @Nonnull
+        Layout append(@Nonnull UUID uuid, @Nonnull String username) {
+            byte[] name = username.getBytes(StandardCharsets.UTF_8);
+            int entrySize = ENTRY_OVERHEAD + name.length;
+
+            // Only the newest layout appends, and everything it writes lies past the end of
+            // every older layout, so readers of those never see the bytes change.
+            if (entries.capacity() - end >= entrySize && count < starts.length()) {
+                entries.writerIndex(end);
+                writeEntry(entries, uuid, name);
+                starts.set(count, end);
+                return new Layout(entries.retain(), starts, count + 1, end + entrySize, holes);
+            }
+
+            int live = end - holes;
+            Layout grown = compact(Math.max(MIN_CAPACITY, (live + entrySize) * 2), Math.max(16, (count + 1) * 2));
+            grown.entries.writerIndex(grown.end);
+            writeEntry(grown.entries, uuid, name);
+            grown.starts.set(count, grown.end);
+            return new Layout(grown.entries, grown.starts, count + 1, grown.end + entrySize, 0);
+        }
+
+        @Nonnull
+        Layout without(int index) {
+            if (count == 1) {
+                return EMPTY;
+            }
+            int last = count - 1;
+            int removedSize = sizeAt(starts.get(index));
+            if (index != last) {
+                starts.set(index, starts.get(last));
+            }
+            Layout next = new Layout(entries.retain(), starts, last, end, holes + removedSize);
+            if (next.holes > MIN_CAPACITY && next.holes > next.end - next.holes) {
+                Layout compacted = next.compact(entries.capacity(), starts.length());
+                next.release();
+                return compacted;
+            }
+            return next;
+        }
+
+        /**
+         * Copy the live entries, in list order, into a new buffer without holes.
+         */
+        @Nonnull
+        private Layout compact(int capacity, int startsCapacity) {
+            ByteBuf buf = ALLOC.directBuffer(capacity, capacity);
+            AtomicIntegerArray compacted = new AtomicIntegerArray(startsCapacity);
+            for (int i = 0; i < count; i++) {
+                int start = starts.get(i);
+                compacted.set(i, buf.writerIndex());
+                buf.writeBytes(entries, start, sizeAt(start));
+            }
+            return new Layout(buf, compacted, count, buf.writerIndex(), 0);
+        }
+
+        int sizeAt(int start) {
+            return ENTRY_OVERHEAD + entries.getUnsignedShortLE(start);
+        }
+
+        /**
+         * Write the entries from {@code from} on in list order, up to {@code budget} bytes,
+         * copying runs of adjacent entries at once.
+         *
+         * @return Index after the last entry written
+         */
+        int writeEntries(@Nonnull ByteBuf buf, int from, int budget) {
+            int used = 0;
+            int runStart = 0;
+            int runLength = 0;
+            int index = from;
+            for (; index < count; index++) {
+                int start = starts.get(index);
+                int size = sizeAt(start);
+                if (used + size > budget) {
+                    break;
+                }
+                if (runLength > 0 && start != runStart + runLength) {
+                    buf.writeBytes(entries, runStart, runLength);
+                    runLength = 0;
+                }
+                if (runLength == 0) {
+                    runStart = start;
+                }
+                runLength += size;
+                used += size;
+            }
+            if (runLength > 0) {
+                buf.writeBytes(entries, runStart, runLength);
+            }
+            return index;
+        }
+
+        boolean tryRetain() {
+            if (this == EMPTY) {
+                return true;
+            }
+            int current;
+            do {
+                current = refs.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            if (this != EMPTY && refs.decrementAndGet() == 0) {
+                entries.release();
+            }
+        }
+
+        private static void writeEntry(@Nonnull ByteBuf buf, @Nonnull UUID uuid, @Nonnull byte[] name) {
+            buf.writeShortLE(name.length);
+            buf.writeBytes(name);
+            buf.writeLong(uuid.getMostSignificantBits());
+            buf.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package dev.monitoringhytale.query.protocol.v2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Writes a V2 response in one pass into a single buffer: header, TLV headers and values in
+ * place, with the TLV and payload lengths patched in once their contents are written.
+ *
+ * <pre>
+ * ByteBuf buf = V2PacketEncoder.begin(alloc, valueLength, flags, requestId);
+ * int tlv = V2PacketEncoder.beginTLV(buf, type);
+ * ... write the value ...
+ * V2PacketEncoder.endTLV(buf, tlv);
+ * V2PacketEncoder.end(buf);
+ * </pre>
+ */
+public final class V2PacketEncoder {
+
+    public static final int TLV_HEADER_SIZE = 4;
+
+    private V2PacketEncoder() {
+    }
+
+    /**
+     * Allocate a buffer for a packet with {@code payloadLength} payload bytes and write the header.
+     * The length is only a size hint; the header's payload length is set by {@link #end(ByteBuf)}.
+     */
+    @Nonnull
+    public static ByteBuf begin(@Nonnull ByteBufAllocator alloc, int payloadLength, short flags, int requestId) {
+        ByteBuf buf = alloc.buffer(V2Protocol.HEADER_SIZE + payloadLength);
+        buf.writeBytes(V2Protocol.RESPONSE_MAGIC);
+        buf.writeByte(V2Protocol.VERSION);
+        buf.writeShortLE(flags);
+        buf.writeIntLE(requestId);
+        buf.writeShortLE(0);
+        return buf;
+    }
+
+    /**
+     * Write a TLV header with a placeholder length.
+     *
+     * @return Index of the length field, for {@link #endTLV(ByteBuf, int)}
+     */
+    public static int beginTLV(@Nonnull ByteBuf buf, short type) {
+        buf.writeShortLE(type);
+        int lengthIndex = buf.writerIndex();
+        buf.writeShortLE(0);
+        return lengthIndex;
+    }
+
+    /**
+     * Set the TLV length to everything written since {@link #beginTLV(ByteBuf, short)}.
+     */
+    public static void endTLV(@Nonnull ByteBuf buf, int lengthIndex) {
+        buf.setShortLE(lengthIndex, buf.writerIndex() - lengthIndex - 2);
+    }
+
+    /**
+     * Set the header's payload length to everything written after the header.
+     */
+    @Nonnull
+    public static ByteBuf end(@Nonnull ByteBuf buf) {
+        buf.setShortLE(V2Protocol.OFFSET_RESPONSE_PAYLOAD_LENGTH, buf.writerIndex() - V2Protocol.HEADER_SIZE);
+        return buf;
+    }
+}
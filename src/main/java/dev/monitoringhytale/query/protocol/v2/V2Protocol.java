@@ -1,5 +1,7 @@
 package dev.monitoringhytale.query.protocol.v2;
 
+import dev.monitoringhytale.query.config.Permissions;
+
 import javax.annotation.Nullable;
 import java.nio.charset.StandardCharsets;
 
@@ -14,16 +16,21 @@ public final class V2Protocol {
     public static final byte[] RESPONSE_MAGIC = "ONEREPLY".getBytes(StandardCharsets.US_ASCII);
 
     public enum QueryType {
-        CHALLENGE((byte) 0x00, null),
-        BASIC((byte) 0x01, "basic"),
-        PLAYERS((byte) 0x02, "players");
+        CHALLENGE((byte) 0x00, null, 0),
+        BASIC((byte) 0x01, "basic", Permissions.ENDPOINT_BASIC),
+        PLAYERS((byte) 0x02, "players", Permissions.ENDPOINT_PLAYERS),
+        PLAYERS_DELTA((byte) 0x03, "players", Permissions.ENDPOINT_PLAYERS);
+
+        private static final QueryType[] VALUES = values();
 
         private final byte code;
         private final String endpoint;
+        private final int endpointBit;
 
-        QueryType(byte code, @Nullable String endpoint) {
+        QueryType(byte code, @Nullable String endpoint, int endpointBit) {
             this.code = code;
             this.endpoint = endpoint;
+            this.endpointBit = endpointBit;
         }
 
         public byte code() {
@@ -35,9 +42,16 @@ public final class V2Protocol {
             return endpoint;
         }
 
+        /**
+         * The {@link Permissions} endpoint bit, or 0 for queries that need no permission.
+         */
+        public int endpointBit() {
+            return endpointBit;
+        }
+
         @Nullable
         public static QueryType fromCode(byte code) {
-            for (QueryType type : values()) {
+            for (QueryType type : VALUES) {
                 if (type.code == code) {
                     return type;
                 }
@@ -47,14 +61,23 @@ public final class V2Protocol {
     }
 
     public static final short FLAG_REQUEST_HAS_AUTH_TOKEN = 0x0001;
+    public static final short FLAG_REQUEST_HAS_VERSION_TAG = 0x0002;
 
     public static final short FLAG_RESPONSE_HAS_MORE_PLAYERS = 0x0001;
     public static final short FLAG_RESPONSE_AUTH_REQUIRED = 0x0002;
+    public static final short FLAG_RESPONSE_NOT_MODIFIED = 0x0004;
     public static final short FLAG_RESPONSE_IS_NETWORK = 0x0010;
     public static final short FLAG_RESPONSE_HAS_ADDRESS = 0x0020;
 
+    public static final byte DELTA_STATUS_OK = 0x00;
+    public static final byte DELTA_STATUS_RESYNC = 0x01;
+
+    public static final byte DELTA_OP_JOIN = 0x01;
+    public static final byte DELTA_OP_LEAVE = 0x02;
+
     public static final int CHALLENGE_TOKEN_SIZE = 32;
     public static final int REQUEST_ID_SIZE = 4;
+    public static final int VERSION_TAG_SIZE = 8;
     public static final int HEADER_SIZE = 17; // magic(8) + version(1) + flags(2) + requestId(4) + payloadLen(2)
 
     public static final int MIN_CHALLENGE_REQUEST_SIZE = REQUEST_MAGIC.length + 1;
@@ -66,4 +89,8 @@ public final class V2Protocol {
     public static final int OFFSET_FLAGS = OFFSET_REQUEST_ID + REQUEST_ID_SIZE;
     public static final int OFFSET_PAGINATION = OFFSET_FLAGS + 2;
     public static final int OFFSET_OPTIONAL_DATA = OFFSET_PAGINATION + 4;
+
+    public static final int OFFSET_RESPONSE_FLAGS = RESPONSE_MAGIC.length + 1;
+    public static final int OFFSET_RESPONSE_REQUEST_ID = OFFSET_RESPONSE_FLAGS + 2;
+    public static final int OFFSET_RESPONSE_PAYLOAD_LENGTH = OFFSET_RESPONSE_REQUEST_ID + REQUEST_ID_SIZE;
 }
@@ -0,0 +1,123 @@
+package dev.monitoringhytale.query.protocol.v2;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reusable view over a V2 request datagram. Fields are read straight from the buffer and the
+ * tokens are exposed as index ranges, so nothing is copied.
+ *
+ * <p>Only valid until the wrapped buffer is released; call {@link #clear()} once done.
+ */
+public final class V2Request {
+
+    private ByteBuf buf;
+    private int base;
+    private int length;
+
+    @Nonnull
+    public V2Request wrap(@Nonnull ByteBuf buf) {
+        this.buf = buf;
+        this.base = buf.readerIndex();
+        this.length = buf.readableBytes();
+        return this;
+    }
+
+    public void clear() {
+        this.buf = null;
+    }
+
+    @Nonnull
+    public ByteBuf buffer() {
+        return buf;
+    }
+
+    public byte queryType() {
+        return buf.getByte(base + V2Protocol.OFFSET_TYPE);
+    }
+
+    public int requestId() {
+        if (length < V2Protocol.OFFSET_REQUEST_ID + V2Protocol.REQUEST_ID_SIZE) {
+            return 0;
+        }
+        return buf.getIntLE(base + V2Protocol.OFFSET_REQUEST_ID);
+    }
+
+    public short flags() {
+        if (length < V2Protocol.OFFSET_FLAGS + 2) {
+            return 0;
+        }
+        return buf.getShortLE(base + V2Protocol.OFFSET_FLAGS);
+    }
+
+    public int offset() {
+        if (length < V2Protocol.OFFSET_PAGINATION + 4) {
+            return 0;
+        }
+        return buf.getIntLE(base + V2Protocol.OFFSET_PAGINATION);
+    }
+
+    public boolean hasChallengeToken() {
+        return length >= V2Protocol.OFFSET_CHALLENGE_TOKEN + V2Protocol.CHALLENGE_TOKEN_SIZE;
+    }
+
+    /**
+     * Absolute buffer index of the challenge token. Check {@link #hasChallengeToken()} first.
+     */
+    public int challengeTokenIndex() {
+        return base + V2Protocol.OFFSET_CHALLENGE_TOKEN;
+    }
+
+    /**
+     * Length of the auth token, or -1 if the request carries none or it is truncated.
+     */
+    public int authTokenLength() {
+        if ((flags() & V2Protocol.FLAG_REQUEST_HAS_AUTH_TOKEN) == 0 || length < V2Protocol.OFFSET_OPTIONAL_DATA + 2) {
+            return -1;
+        }
+        int authLength = buf.getShortLE(base + V2Protocol.OFFSET_OPTIONAL_DATA) & 0xFFFF;
+        if (length < V2Protocol.OFFSET_OPTIONAL_DATA + 2 + authLength) {
+            return -1;
+        }
+        return authLength;
+    }
+
+    /**
+     * Absolute buffer index of the auth token. Only meaningful when {@link #authTokenLength()} is not -1.
+     */
+    public int authTokenIndex() {
+        return base + V2Protocol.OFFSET_OPTIONAL_DATA + 2;
+    }
+
+    public boolean hasVersionTag() {
+        return versionTagIndex() >= 0;
+    }
+
+    /**
+     * The version tag from the client's last response. Check {@link #hasVersionTag()} first.
+     */
+    public long versionTag() {
+        return buf.getLongLE(versionTagIndex());
+    }
+
+    /**
+     * Absolute buffer index of the version tag, which follows the auth token if there is one,
+     * or -1 if the request carries none or it is truncated.
+     */
+    private int versionTagIndex() {
+        short flags = flags();
+        if ((flags & V2Protocol.FLAG_REQUEST_HAS_VERSION_TAG) == 0) {
+            return -1;
+        }
+        int offset = V2Protocol.OFFSET_OPTIONAL_DATA;
+        if ((flags & V2Protocol.FLAG_REQUEST_HAS_AUTH_TOKEN) != 0) {
+            int authLength = authTokenLength();
+            if (authLength < 0) {
+                return -1;
+            }
+            offset += 2 + authLength;
+        }
+        return length >= offset + V2Protocol.VERSION_TAG_SIZE ? base + offset : -1;
+    }
+}
@@ -1,173 +1,159 @@
 package dev.monitoringhytale.query.protocol.v2;
 
-import com.hypixel.hytale.server.core.universe.PlayerRef;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
 import dev.monitoringhytale.query.network.model.NetworkSnapshot;
-import dev.monitoringhytale.query.network.model.PlayerInfo;
 import dev.monitoringhytale.query.protocol.Protocol;
 import dev.monitoringhytale.query.protocol.ServerDataProvider;
+import dev.monitoringhytale.query.protocol.ServerInfoSnapshot;
+import dev.monitoringhytale.query.protocol.StateGeneration;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 
 import javax.annotation.Nonnull;
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.UUID;
-import java.util.function.Function;
+import javax.annotation.Nullable;
+import java.net.InetAddress;
 
 public final class V2ResponseBuilder {
 
     private static final int MAX_PAYLOAD_SIZE = Protocol.SAFE_MTU - V2Protocol.HEADER_SIZE - 50;
-    private static final int TLV_HEADER_SIZE = 4;
+    private static final int TLV_HEADER_SIZE = V2PacketEncoder.TLV_HEADER_SIZE;
     private static final int LIST_HEADER_SIZE = 12;
+    private static final int DELTA_HEADER_SIZE = 7;
+    private static final int STATE_VERSION_TLV_SIZE = TLV_HEADER_SIZE + V2Protocol.VERSION_TAG_SIZE;
+    private static final int PLAYER_LIST_BUDGET = MAX_PAYLOAD_SIZE - STATE_VERSION_TLV_SIZE
+            - TLV_HEADER_SIZE - LIST_HEADER_SIZE;
+    private static final int PLAYER_DELTA_BUDGET = MAX_PAYLOAD_SIZE - STATE_VERSION_TLV_SIZE
+            - TLV_HEADER_SIZE - DELTA_HEADER_SIZE;
 
     private V2ResponseBuilder() {
     }
 
     @Nonnull
-    public static ByteBuf buildChallengeResponse(@Nonnull ByteBufAllocator alloc, @Nonnull byte[] token) {
+    public static ByteBuf buildChallengeResponse(@Nonnull ByteBufAllocator alloc,
+                                                 @Nonnull ChallengeTokenGenerator generator,
+                                                 @Nonnull InetAddress clientAddress) {
         ByteBuf buf = alloc.buffer(48);
         buf.writeBytes(V2Protocol.RESPONSE_MAGIC);
         buf.writeByte(V2Protocol.QueryType.CHALLENGE.code());
-        buf.writeBytes(token);
+        generator.writeToken(buf, clientAddress);
         buf.writeZero(7);
         return buf;
     }
 
+    /**
+     * @param generation The {@link StateGeneration} read before any of the state in the response,
+     *                   sent back as its version tag
+     */
     @Nonnull
-    public static ByteBuf buildBasicResponse(@Nonnull ByteBufAllocator alloc, int requestId, short flags) {
-        ByteBuf payload = alloc.buffer();
-        try {
-            V2TLVWriter.writeTLV(payload, alloc, V2TLVWriter.TYPE_SERVER_INFO, V2ResponseBuilder::writeLocalServerInfo);
-            return buildPacket(alloc, requestId, (short) (flags | getAddressFlag()), payload);
-        } finally {
-            payload.release();
-        }
+    public static ByteBuf buildBasicResponse(@Nonnull ByteBufAllocator alloc, int requestId, short flags,
+                                             long generation) {
+        ServerInfoSnapshot info = ServerDataProvider.snapshot();
+        return buildServerInfoPacket(alloc, requestId, (short) (flags | getAddressFlag(info)),
+                info, info.playerCount(), info.maxPlayers(), generation);
     }
 
     @Nonnull
-    public static ByteBuf buildBasicResponse(@Nonnull ByteBufAllocator alloc, int requestId, @Nonnull NetworkSnapshot snapshot) {
-        ByteBuf payload = alloc.buffer();
-        try {
-            V2TLVWriter.writeTLV(payload, alloc, V2TLVWriter.TYPE_SERVER_INFO, buf -> writeNetworkServerInfo(buf, snapshot));
-            return buildPacket(alloc, requestId, (short) (V2Protocol.FLAG_RESPONSE_IS_NETWORK | getAddressFlag()), payload);
-        } finally {
-            payload.release();
-        }
-    }
-
-    private static short getAddressFlag() {
-        return ServerDataProvider.getHost() != null ? V2Protocol.FLAG_RESPONSE_HAS_ADDRESS : 0;
+    public static ByteBuf buildBasicResponse(@Nonnull ByteBufAllocator alloc, int requestId,
+                                             @Nonnull NetworkSnapshot snapshot, long generation) {
+        ServerInfoSnapshot info = ServerDataProvider.snapshot();
+        return buildServerInfoPacket(alloc, requestId, (short) (V2Protocol.FLAG_RESPONSE_IS_NETWORK | getAddressFlag(info)),
+                info, snapshot.getTotalPlayerCount(), snapshot.getTotalMaxPlayers(), generation);
     }
 
     @Nonnull
-    public static ByteBuf buildPlayersResponse(@Nonnull ByteBufAllocator alloc, int requestId, int offset) {
-        List<PlayerRef> players = ServerDataProvider.getPlayers();
-        return buildPlayersResponse(alloc, requestId, (short) 0, players, offset, PlayerRef::getUuid, PlayerRef::getUsername);
+    private static ByteBuf buildServerInfoPacket(@Nonnull ByteBufAllocator alloc, int requestId, short flags,
+                                                 @Nonnull ServerInfoSnapshot info, int playerCount, int maxPlayers,
+                                                 long generation) {
+        ByteBuf buf = V2PacketEncoder.begin(alloc,
+                TLV_HEADER_SIZE + info.serverInfoLength() + STATE_VERSION_TLV_SIZE, flags, requestId);
+        int tlv = V2PacketEncoder.beginTLV(buf, V2TLVWriter.TYPE_SERVER_INFO);
+        writeServerInfo(buf, info, playerCount, maxPlayers);
+        V2PacketEncoder.endTLV(buf, tlv);
+        writeStateVersion(buf, generation);
+        return V2PacketEncoder.end(buf);
     }
 
+    /**
+     * Build the header-only reply to a conditional request whose version tag is still current.
+     */
     @Nonnull
-    public static ByteBuf buildPlayersResponse(@Nonnull ByteBufAllocator alloc, int requestId, @Nonnull NetworkSnapshot snapshot, int offset) {
-        List<PlayerInfo> players = snapshot.players();
-        return buildPlayersResponse(alloc, requestId, V2Protocol.FLAG_RESPONSE_IS_NETWORK, players, offset, PlayerInfo::uuid, PlayerInfo::username);
+    public static ByteBuf buildNotModifiedResponse(@Nonnull ByteBufAllocator alloc, int requestId, short flags) {
+        ByteBuf buf = V2PacketEncoder.begin(alloc, 0, (short) (flags | V2Protocol.FLAG_RESPONSE_NOT_MODIFIED), requestId);
+        return V2PacketEncoder.end(buf);
     }
 
-    @Nonnull
-    public static ByteBuf buildAuthRequiredResponse(@Nonnull ByteBufAllocator alloc, int requestId) {
-        return buildBasicResponse(alloc, requestId, V2Protocol.FLAG_RESPONSE_AUTH_REQUIRED);
+    private static short getAddressFlag(@Nonnull ServerInfoSnapshot info) {
+        return info.host() != null ? V2Protocol.FLAG_RESPONSE_HAS_ADDRESS : 0;
     }
 
-    private static <T> ByteBuf buildPlayersResponse(@Nonnull ByteBufAllocator alloc, int requestId, short baseFlags,
-                                                     @Nonnull List<T> players, int offset,
-                                                     @Nonnull Function<T, UUID> uuidFn, @Nonnull Function<T, String> usernameFn) {
-        int totalPlayers = players.size();
-        int startIndex = Math.min(offset, totalPlayers);
-        short flags = baseFlags;
-
-        ByteBuf tlvValue = alloc.buffer();
-        try {
-            int count = 0;
-            int remaining = MAX_PAYLOAD_SIZE - TLV_HEADER_SIZE - LIST_HEADER_SIZE;
-
-            tlvValue.writeIntLE(totalPlayers);
-            int countPosition = tlvValue.writerIndex();
-            tlvValue.writeIntLE(0);
-            tlvValue.writeIntLE(startIndex);
-
-            for (int i = startIndex; i < players.size(); i++) {
-                T player = players.get(i);
-                String username = usernameFn.apply(player);
-                int entrySize = 2 + username.getBytes(StandardCharsets.UTF_8).length + 16;
-
-                if (remaining < entrySize) {
-                    flags |= V2Protocol.FLAG_RESPONSE_HAS_MORE_PLAYERS;
-                    break;
-                }
-
-                writePlayerEntry(tlvValue, uuidFn.apply(player), username);
-                remaining -= entrySize;
-                count++;
-            }
-
-            tlvValue.setIntLE(countPosition, count);
-
-            ByteBuf payload = alloc.buffer();
-            try {
-                V2TLVWriter.writeTLV(payload, V2TLVWriter.TYPE_PLAYER_LIST, tlvValue);
-                return buildPacket(alloc, requestId, flags, payload);
-            } finally {
-                payload.release();
-            }
-        } finally {
-            tlvValue.release();
+    /**
+     * Build a PLAYERS page from pre-encoded entries. The entries are copied from the arena in
+     * runs, so nothing is encoded per request.
+     */
+    @Nonnull
+    public static ByteBuf buildPlayersResponse(@Nonnull ByteBufAllocator alloc, int requestId, short flags,
+                                               @Nonnull PlayerListArena players, int offset, long generation) {
+        ByteBuf buf = V2PacketEncoder.begin(alloc, MAX_PAYLOAD_SIZE, flags, requestId);
+        int tlv = V2PacketEncoder.beginTLV(buf, V2TLVWriter.TYPE_PLAYER_LIST);
+        if (players.writePage(buf, offset, PLAYER_LIST_BUDGET)) {
+            buf.setShortLE(V2Protocol.OFFSET_RESPONSE_FLAGS, flags | V2Protocol.FLAG_RESPONSE_HAS_MORE_PLAYERS);
         }
+        V2PacketEncoder.endTLV(buf, tlv);
+        writeStateVersion(buf, generation);
+        return V2PacketEncoder.end(buf);
     }
 
-    private static void writePlayerEntry(@Nonnull ByteBuf buf, @Nonnull UUID uuid, @Nonnull String username) {
-        byte[] nameBytes = username.getBytes(StandardCharsets.UTF_8);
-        buf.writeShortLE(nameBytes.length);
-        buf.writeBytes(nameBytes);
-        buf.writeLong(uuid.getMostSignificantBits());
-        buf.writeLong(uuid.getLeastSignificantBits());
-    }
+    /**
+     * Build a PLAYERS_DELTA response with the changes after {@code cursor}, or a resync if they
+     * are no longer retained or changes are not tracked at all.
+     */
+    @Nonnull
+    public static ByteBuf buildPlayerDeltaResponse(@Nonnull ByteBufAllocator alloc, int requestId, short flags,
+                                                   @Nullable PlayerChangeLog changes, int cursor, long generation) {
+        ByteBuf buf = V2PacketEncoder.begin(alloc,
+                TLV_HEADER_SIZE + DELTA_HEADER_SIZE + STATE_VERSION_TLV_SIZE, flags, requestId);
+        int tlv = V2PacketEncoder.beginTLV(buf, V2TLVWriter.TYPE_PLAYER_DELTA);
+        int headerIndex = buf.writerIndex();
+        buf.writeZero(DELTA_HEADER_SIZE);
+
+        PlayerChangeLog.Delta delta = changes != null
+                ? changes.writeSince(cursor, PLAYER_DELTA_BUDGET, buf)
+                : PlayerChangeLog.Delta.resync(0);
+        buf.setIntLE(headerIndex, delta.cursor());
+        buf.setByte(headerIndex + 4, delta.resync() ? V2Protocol.DELTA_STATUS_RESYNC : V2Protocol.DELTA_STATUS_OK);
+        buf.setShortLE(headerIndex + 5, delta.count());
+        if (delta.hasMore()) {
+            buf.setShortLE(V2Protocol.OFFSET_RESPONSE_FLAGS, flags | V2Protocol.FLAG_RESPONSE_HAS_MORE_PLAYERS);
+        }
 
-    private static ByteBuf buildPacket(@Nonnull ByteBufAllocator alloc, int requestId, short flags, @Nonnull ByteBuf payload) {
-        ByteBuf buf = alloc.buffer(V2Protocol.HEADER_SIZE + payload.readableBytes());
-        buf.writeBytes(V2Protocol.RESPONSE_MAGIC);
-        buf.writeByte(V2Protocol.VERSION);
-        buf.writeShortLE(flags);
-        buf.writeIntLE(requestId);
-        buf.writeShortLE(payload.readableBytes());
-        buf.writeBytes(payload);
-        return buf;
+        V2PacketEncoder.endTLV(buf, tlv);
+        writeStateVersion(buf, generation);
+        return V2PacketEncoder.end(buf);
     }
 
-    private static void writeLocalServerInfo(@Nonnull ByteBuf buf) {
-        V2TLVWriter.writeString(buf, ServerDataProvider.getServerName());
-        V2TLVWriter.writeString(buf, ServerDataProvider.getMotd());
-        V2TLVWriter.writeInt(buf, ServerDataProvider.getPlayerCount());
-        V2TLVWriter.writeInt(buf, ServerDataProvider.getMaxPlayers());
-        V2TLVWriter.writeString(buf, ServerDataProvider.getVersion());
-        V2TLVWriter.writeInt(buf, ServerDataProvider.getProtocolVersion());
-        V2TLVWriter.writeString(buf, ServerDataProvider.getProtocolHash());
-        writeOptionalAddress(buf);
+    @Nonnull
+    public static ByteBuf buildAuthRequiredResponse(@Nonnull ByteBufAllocator alloc, int requestId, long generation) {
+        return buildBasicResponse(alloc, requestId, V2Protocol.FLAG_RESPONSE_AUTH_REQUIRED, generation);
     }
 
-    private static void writeNetworkServerInfo(@Nonnull ByteBuf buf, @Nonnull NetworkSnapshot snapshot) {
-        V2TLVWriter.writeString(buf, ServerDataProvider.getServerName());
-        V2TLVWriter.writeString(buf, ServerDataProvider.getMotd());
-        V2TLVWriter.writeInt(buf, snapshot.getTotalPlayerCount());
-        V2TLVWriter.writeInt(buf, snapshot.getTotalMaxPlayers());
-        V2TLVWriter.writeString(buf, ServerDataProvider.getVersion());
-        V2TLVWriter.writeInt(buf, ServerDataProvider.getProtocolVersion());
-        V2TLVWriter.writeString(buf, ServerDataProvider.getProtocolHash());
-        writeOptionalAddress(buf);
+    private static void writeStateVersion(@Nonnull ByteBuf buf, long generation) {
+        buf.writeShortLE(V2TLVWriter.TYPE_STATE_VERSION);
+        buf.writeShortLE(V2Protocol.VERSION_TAG_SIZE);
+        buf.writeLongLE(StateGeneration.versionTag(generation));
     }
 
-    private static void writeOptionalAddress(@Nonnull ByteBuf buf) {
-        String host = ServerDataProvider.getHost();
-        if (host != null) {
-            V2TLVWriter.writeString(buf, host);
-            V2TLVWriter.writeShort(buf, ServerDataProvider.getHostPort());
+    private static void writeServerInfo(@Nonnull ByteBuf buf, @Nonnull ServerInfoSnapshot info,
+                                        int playerCount, int maxPlayers) {
+        info.writeServerName(buf);
+        info.writeMotd(buf);
+        V2TLVWriter.writeInt(buf, playerCount);
+        V2TLVWriter.writeInt(buf, maxPlayers);
+        info.writeVersion(buf);
+        V2TLVWriter.writeInt(buf, info.protocolVersion());
+        info.writeProtocolHash(buf);
+        if (info.host() != null) {
+            info.writeHost(buf);
+            V2TLVWriter.writeShort(buf, info.hostPort());
         }
     }
 }
@@ -11,6 +11,8 @@ public final class V2TLVWriter {
 
     public static final short TYPE_SERVER_INFO = 0x0001;
     public static final short TYPE_PLAYER_LIST = 0x0002;
+    public static final short TYPE_PLAYER_DELTA = 0x0003;
+    public static final short TYPE_STATE_VERSION = 0x0004;
 
     private V2TLVWriter() {
     }
@@ -0,0 +1,169 @@
+package dev.monitoringhytale.query.ratelimit;
+
+import dev.monitoringhytale.query.config.RateLimitConfig;
+
+import javax.annotation.Nonnull;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free per-address and per-prefix rate limiter with a fixed memory footprint.
+ *
+ * <p>Every bucket is a single long in a shared table: a 16-bit key fingerprint and the 48-bit
+ * theoretical arrival time (microseconds) of the generic cell rate algorithm, which behaves like
+ * a token bucket refilled at the configured rate. Updates are a CAS on that one slot.
+ *
+ * <p>A key may live in one of two slots. When neither holds it, the slot whose bucket has been
+ * idle longest is taken over, so eviction is approximate: under heavy pressure a busy bucket can
+ * be reset, which only ever errs towards letting a packet through. The /24 or /64 prefix bucket
+ * still bounds what a range of addresses can send.
+ */
+public final class RateLimiter {
+
+    /**
+     * Query types with separate limits.
+     */
+    public enum Bucket {
+        CHALLENGE,
+        BASIC,
+        PLAYERS,
+        LEGACY
+    }
+
+    private static final long TIME_MASK = (1L << 48) - 1;
+    private static final long PREFIX_KEY = 1L << 63;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final long seed = new SecureRandom().nextLong();
+    private final long startNanos = System.nanoTime();
+
+    private final long[] addressInterval = new long[Bucket.values().length];
+    private final long[] addressTolerance = new long[Bucket.values().length];
+    private final long[] prefixInterval = new long[Bucket.values().length];
+    private final long[] prefixTolerance = new long[Bucket.values().length];
+    private final LongAdder[] dropped = new LongAdder[Bucket.values().length];
+
+    public RateLimiter(@Nonnull RateLimitConfig config) {
+        this.slots = new AtomicLongArray(config.getTableSize());
+        this.mask = config.getTableSize() - 1;
+
+        configure(Bucket.CHALLENGE, config.getChallenge(), config.getPrefixMultiplier());
+        configure(Bucket.BASIC, config.getBasic(), config.getPrefixMultiplier());
+        configure(Bucket.PLAYERS, config.getPlayers(), config.getPrefixMultiplier());
+        configure(Bucket.LEGACY, config.getLegacy(), config.getPrefixMultiplier());
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = new LongAdder();
+        }
+    }
+
+    private void configure(@Nonnull Bucket bucket, @Nonnull RateLimitConfig.Rate rate, int prefixMultiplier) {
+        int i = bucket.ordinal();
+        addressInterval[i] = Math.max(1, 1_000_000L / rate.getPerSecond());
+        addressTolerance[i] = addressInterval[i] * (rate.getBurst() - 1);
+
+        prefixInterval[i] = Math.max(1, 1_000_000L / ((long) rate.getPerSecond() * prefixMultiplier));
+        prefixTolerance[i] = prefixInterval[i] * ((long) rate.getBurst() * prefixMultiplier - 1);
+    }
+
+    /**
+     * Take one packet's worth from the address and prefix buckets.
+     *
+     * @return false if either bucket is empty; the packet should be dropped
+     */
+    public boolean tryAcquire(@Nonnull Bucket bucket, @Nonnull InetAddress address) {
+        long addressKey;
+        long prefixKey;
+        if (address instanceof Inet4Address) {
+            // Inet4Address.hashCode() is the address itself, and unlike getAddress() doesn't copy.
+            int ip = address.hashCode();
+            addressKey = mix(ip & 0xFFFFFFFFL);
+            prefixKey = mix((ip & 0xFFFFFF00L) | PREFIX_KEY);
+        } else {
+            byte[] ip = address.getAddress();
+            long high = readLong(ip, 0);
+            long low = readLong(ip, 8);
+            addressKey = mix(high ^ mix(low));
+            prefixKey = mix(high | PREFIX_KEY);
+        }
+
+        int i = bucket.ordinal();
+        long salt = (long) (i + 1) * 0x9E3779B97F4A7C15L;
+        long now = (System.nanoTime() - startNanos) / 1000;
+
+        boolean allowed = acquire(mix(addressKey ^ salt), addressInterval[i], addressTolerance[i], now)
+                && acquire(mix(prefixKey ^ salt), prefixInterval[i], prefixTolerance[i], now);
+        if (!allowed) {
+            dropped[i].increment();
+        }
+        return allowed;
+    }
+
+    public long getDroppedCount(@Nonnull Bucket bucket) {
+        return dropped[bucket.ordinal()].sum();
+    }
+
+    public long getDroppedCount() {
+        long total = 0;
+        for (LongAdder adder : dropped) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    private boolean acquire(long hash, long interval, long tolerance, long now) {
+        long fingerprint = (hash >>> 48) | 1; // never 0, so empty slots never match
+        int first = (int) hash & mask;
+        int second = (int) (hash >>> 24) & mask;
+
+        while (true) {
+            long a = slots.get(first);
+            long b = slots.get(second);
+
+            int index;
+            long entry;
+            long arrival;
+            if (a >>> 48 == fingerprint) {
+                index = first;
+                entry = a;
+                arrival = Math.max(a & TIME_MASK, now);
+            } else if (b >>> 48 == fingerprint) {
+                index = second;
+                entry = b;
+                arrival = Math.max(b & TIME_MASK, now);
+            } else {
+                boolean firstIsOlder = (a & TIME_MASK) <= (b & TIME_MASK);
+                index = firstIsOlder ? first : second;
+                entry = firstIsOlder ? a : b;
+                arrival = now;
+            }
+
+            if (arrival - now > tolerance) {
+                return false;
+            }
+
+            long next = (fingerprint << 48) | ((arrival + interval) & TIME_MASK);
+            if (slots.compareAndSet(index, entry, next)) {
+                return true;
+            }
+        }
+    }
+
+    private long mix(long value) {
+        long z = value ^ seed;
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static long readLong(@Nonnull byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -1,5 +1,7 @@
 package dev.monitoringhytale.query.util;
 
+import io.netty.buffer.ByteBuf;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -25,6 +27,18 @@ public final class CryptoUtils {
         return result == 0;
     }
 
+    /**
+     * Constant-time comparison of a buffer range with part of a byte array.
+     */
+    public static boolean constantTimeEquals(@Nonnull ByteBuf buf, int index,
+                                             @Nonnull byte[] expected, int offset, int length) {
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= buf.getByte(index + i) ^ expected[offset + i];
+        }
+        return result == 0;
+    }
+
     /**
      * Convert bytes to hexadecimal string.
      */
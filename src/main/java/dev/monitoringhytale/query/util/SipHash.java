@@ -0,0 +1,88 @@
+package dev.monitoringhytale.query.util;
+
+import javax.annotation.Nonnull;
+
+/**
+ * SipHash-2-4 with 128-bit output (Aumasson and Bernstein), a keyed MAC for short inputs.
+ */
+public final class SipHash {
+
+    public static final int KEY_SIZE = 16;
+    public static final int OUTPUT_SIZE = 16;
+
+    private SipHash() {
+    }
+
+    /**
+     * MAC over {@code in[off, off + len)} with the 128-bit key {@code k0 || k1} (each read
+     * little-endian from the key bytes). Writes {@link #OUTPUT_SIZE} bytes to {@code out} at {@code outOff}.
+     */
+    public static void hash128(long k0, long k1, @Nonnull byte[] in, int off, int len,
+                               @Nonnull byte[] out, int outOff) {
+        long v0 = 0x736f6d6570736575L ^ k0;
+        long v1 = 0x646f72616e646f6dL ^ k1 ^ 0xee;
+        long v2 = 0x6c7967656e657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+
+        int end = off + len - (len & 7);
+        for (int i = off; i < end; i += 8) {
+            long m = readLongLE(in, i);
+            v3 ^= m;
+            for (int r = 0; r < 2; r++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+
+        long last = (long) len << 56;
+        for (int i = 0; i < (len & 7); i++) {
+            last |= (in[end + i] & 0xFFL) << (8 * i);
+        }
+        v3 ^= last;
+        for (int r = 0; r < 2; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= last;
+
+        v2 ^= 0xee;
+        for (int r = 0; r < 4; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        writeLongLE(out, outOff, v0 ^ v1 ^ v2 ^ v3);
+
+        v1 ^= 0xdd;
+        for (int r = 0; r < 4; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        writeLongLE(out, outOff + 8, v0 ^ v1 ^ v2 ^ v3);
+    }
+
+    public static long readLongLE(@Nonnull byte[] b, int i) {
+        return (b[i] & 0xFFL)
+                | (b[i + 1] & 0xFFL) << 8
+                | (b[i + 2] & 0xFFL) << 16
+                | (b[i + 3] & 0xFFL) << 24
+                | (b[i + 4] & 0xFFL) << 32
+                | (b[i + 5] & 0xFFL) << 40
+                | (b[i + 6] & 0xFFL) << 48
+                | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    private static void writeLongLE(@Nonnull byte[] b, int i, long v) {
+        for (int j = 0; j < 8; j++) {
+            b[i + j] = (byte) (v >>> (8 * j));
+        }
+    }
+}
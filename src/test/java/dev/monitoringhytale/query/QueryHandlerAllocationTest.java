@@ -0,0 +1,202 @@
+package dev.monitoringhytale.query;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import dev.monitoringhytale.query.auth.ChallengeTokenGenerator;
+import dev.monitoringhytale.query.auth.TokenValidator;
+import dev.monitoringhytale.query.config.AuthConfig;
+import dev.monitoringhytale.query.config.Permissions;
+import dev.monitoringhytale.query.network.model.PlayerInfo;
+import dev.monitoringhytale.query.protocol.ServerDataProvider;
+import dev.monitoringhytale.query.protocol.ServerInfoSnapshot;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The V2 request path must not allocate per request once warmed up. Bytes allocated by the
+ * current thread around a batch of requests are compared with a handler that only echoes a
+ * pooled buffer, which costs the same response {@link DatagramPacket} and channel bookkeeping.
+ *
+ * <p>The one exception is the HMAC of a new challenge token: {@code Mac.doFinal(byte[], int)}
+ * copies the result out of an array it allocates.
+ */
+class QueryHandlerAllocationTest {
+
+    private static final String AUTH_TOKEN = "admin-token-0123456789abcdef";
+    private static final int WARMUP = 20_000;
+    private static final int BATCH = 10_000;
+    // The batch average may drift by a few bytes (TLAB bookkeeping), but never by a whole object.
+    private static final int MIN_OBJECT_SIZE = 16;
+    // The byte[32] behind Mac.doFinal(byte[], int).
+    private static final int MAC_COPY_SIZE = 16 + 32;
+
+    private final InetSocketAddress server = new InetSocketAddress("127.0.0.1", 5520);
+    private final InetSocketAddress client = new InetSocketAddress("10.0.0.1", 40000);
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private ChallengeTokenGenerator generator;
+    private PlayerListArena players;
+    private QueryHandler handler;
+    private EmbeddedChannel channel;
+    private EmbeddedChannel echo;
+    private ResourceLeakDetector.Level leakDetection;
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        // Sampled leak records would allocate at random points in the measured batch.
+        leakDetection = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.DISABLED);
+
+        ServerDataProvider.publish(new ServerInfoSnapshot("Test Server", "Welcome", 100, 1000,
+                "play.example.org", 5520, "2026.1.0", 1, "0123456789abcdef", List.of()));
+
+        List<PlayerInfo> list = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list.add(PlayerInfo.of(new UUID(0x1234L, i), "Player_" + i, "server-0", "Server 0"));
+        }
+        players = new PlayerListArena();
+        players.reset(list, PlayerInfo::uuid, PlayerInfo::username);
+
+        AuthConfig auth = new AuthConfig();
+        auth.addToken(AUTH_TOKEN, Permissions.allowAll());
+
+        generator = new ChallengeTokenGenerator(ChallengeTokenGenerator.generateSecret());
+        handler = new QueryHandler(HytaleLogger.forEnclosingClass(), generator, new TokenValidator(auth),
+                null, players, null, null, null, false, 65536);
+        channel = new EmbeddedChannel(handler);
+        echo = new EmbeddedChannel(new EchoHandler());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (handler != null) {
+            channel.finishAndReleaseAll();
+            echo.finishAndReleaseAll();
+            players.clear();
+            ResourceLeakDetector.setLevel(leakDetection);
+        }
+    }
+
+    @Test
+    void challengeOnlyAllocatesTheMac() {
+        assertAllocatesAtMost(MAC_COPY_SIZE, challengeRequest());
+    }
+
+    @Test
+    void basicDoesNotAllocate() {
+        assertAllocatesAtMost(0, query(V2Protocol.QueryType.BASIC, null));
+    }
+
+    @Test
+    void playersDoesNotAllocate() {
+        assertAllocatesAtMost(0, query(V2Protocol.QueryType.PLAYERS, AUTH_TOKEN));
+    }
+
+    private void assertAllocatesAtMost(int expected, ByteBuf request) {
+        try {
+            long baseline = allocatedPerRequest(echo, request);
+            long allocated = allocatedPerRequest(channel, request);
+            assertTrue(allocated - baseline < expected + MIN_OBJECT_SIZE,
+                    "allocated " + allocated + " bytes per request, the echo baseline " + baseline);
+        } finally {
+            request.release();
+        }
+    }
+
+    /**
+     * Bytes allocated per request on this thread, after warming up. The request packets are
+     * created before measuring.
+     */
+    private long allocatedPerRequest(EmbeddedChannel target, ByteBuf request) {
+        for (int i = 0; i < WARMUP; i++) {
+            roundTrip(target, new DatagramPacket(request.retainedDuplicate(), server, client));
+        }
+
+        DatagramPacket[] packets = new DatagramPacket[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            packets[i] = new DatagramPacket(request.retainedDuplicate(), server, client);
+        }
+
+        long thread = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (DatagramPacket packet : packets) {
+            roundTrip(target, packet);
+        }
+        long after = threads.getThreadAllocatedBytes(thread);
+        return (after - before) / BATCH;
+    }
+
+    private static void roundTrip(EmbeddedChannel target, DatagramPacket packet) {
+        target.pipeline().fireChannelRead(packet);
+        target.pipeline().fireChannelReadComplete();
+        DatagramPacket response = target.readOutbound();
+        assertNotNull(response, "no response");
+        response.release();
+    }
+
+    private ByteBuf challengeRequest() {
+        ByteBuf buf = Unpooled.buffer(V2Protocol.MIN_CHALLENGE_REQUEST_SIZE);
+        buf.writeBytes(V2Protocol.REQUEST_MAGIC);
+        buf.writeByte(V2Protocol.QueryType.CHALLENGE.code());
+        return buf;
+    }
+
+    private ByteBuf query(V2Protocol.QueryType type, String authToken) {
+        ByteBuf buf = Unpooled.buffer(128);
+        buf.writeBytes(V2Protocol.REQUEST_MAGIC);
+        buf.writeByte(type.code());
+        generator.writeToken(buf, client.getAddress());
+        buf.writeIntLE(0x01020304);
+        buf.writeShortLE(authToken != null ? V2Protocol.FLAG_REQUEST_HAS_AUTH_TOKEN : 0);
+        buf.writeIntLE(0);
+        if (authToken != null) {
+            byte[] token = authToken.getBytes(StandardCharsets.UTF_8);
+            buf.writeShortLE(token.length);
+            buf.writeBytes(token);
+        }
+        return buf;
+    }
+
+    /**
+     * Answers every packet with a pooled buffer of the request's size, as a response would be.
+     */
+    private static final class EchoHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            DatagramPacket packet = (DatagramPacket) msg;
+            ByteBuf response = ctx.alloc().directBuffer(packet.content().readableBytes());
+            response.writeBytes(packet.content());
+            ctx.write(new DatagramPacket(response, packet.sender()));
+            packet.release();
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+    }
+}
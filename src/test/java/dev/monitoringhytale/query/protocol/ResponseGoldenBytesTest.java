@@ -0,0 +1,205 @@
+package dev.monitoringhytale.query.protocol;
+
+import dev.monitoringhytale.query.network.model.NetworkSnapshot;
+import dev.monitoringhytale.query.network.model.PlayerInfo;
+import dev.monitoringhytale.query.network.model.ServerState;
+import dev.monitoringhytale.query.protocol.v1.V1ResponseBuilder;
+import dev.monitoringhytale.query.protocol.v2.PlayerListArena;
+import dev.monitoringhytale.query.protocol.v2.V2Protocol;
+import dev.monitoringhytale.query.protocol.v2.V2ResponseBuilder;
+import dev.monitoringhytale.query.protocol.v2.V2TLVWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * The single-pass encoders must produce the same bytes as the original builders, which wrote
+ * each TLV value into a temporary buffer and copied it into the packet. The fixtures in
+ * {@code golden/} were captured from those builders for the inputs below.
+ *
+ * <p>V2 responses now end in a STATE_VERSION TLV, which the original protocol did not have; it
+ * is checked and stripped before comparing. PLAYERS pages reserve room for it, so every player
+ * entry here is 30 bytes, where the old and new page budgets end a page at the same player.
+ */
+class ResponseGoldenBytesTest {
+
+    static final int REQUEST_ID = 0x01020304;
+    static final long GENERATION = 42;
+    static final int PLAYER_COUNT = 150;
+
+    private static final int STATE_VERSION_TLV_SIZE = 4 + V2Protocol.VERSION_TAG_SIZE;
+    private static final ByteBufAllocator ALLOC = ByteBufAllocator.DEFAULT;
+
+    private PlayerListArena arena;
+
+    static List<ServerInfoSnapshot.Plugin> plugins() {
+        return List.of(
+                new ServerInfoSnapshot.Plugin("Example:Alpha", "1.0.0", true),
+                new ServerInfoSnapshot.Plugin("Example:Beta", "2.1.3", false),
+                new ServerInfoSnapshot.Plugin("Exämple:Gamma", "0.9", true));
+    }
+
+    static ServerInfoSnapshot serverInfo(boolean withHost) {
+        return new ServerInfoSnapshot("Golden Server ✦", "Welcome to the ünïcode server", 150, 500,
+                withHost ? "play.example.org" : null, 5520, "2026.1.0", 3, "0123456789abcdef", plugins());
+    }
+
+    /**
+     * Players whose entries are all 30 bytes: a 12-byte name, ASCII or with a two-byte character.
+     */
+    static List<PlayerInfo> players() {
+        List<PlayerInfo> players = new ArrayList<>(PLAYER_COUNT);
+        for (int i = 0; i < PLAYER_COUNT; i++) {
+            String name = i % 5 == 0 ? String.format("Spíeler_%03d", i) : String.format("Player_%05d", i);
+            players.add(PlayerInfo.of(new UUID(0x0123456789abcdefL, i), name, "server-" + i % 3, "Server " + i % 3));
+        }
+        return players;
+    }
+
+    static NetworkSnapshot network() {
+        List<ServerState> servers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            servers.add(ServerState.builder("server-" + i).serverName("Server " + i).maxPlayers(200).build());
+        }
+        return NetworkSnapshot.of(servers, players());
+    }
+
+    @BeforeEach
+    void setUp() {
+        ServerDataProvider.publish(serverInfo(true));
+        arena = new PlayerListArena();
+        arena.reset(players(), PlayerInfo::uuid, PlayerInfo::username);
+    }
+
+    @AfterEach
+    void tearDown() {
+        arena.clear();
+    }
+
+    @Test
+    void v2Basic() {
+        assertV2("v2-basic", V2ResponseBuilder.buildBasicResponse(ALLOC, REQUEST_ID, (short) 0, GENERATION));
+    }
+
+    @Test
+    void v2BasicWithoutHost() {
+        ServerDataProvider.publish(serverInfo(false));
+        assertV2("v2-basic-no-host", V2ResponseBuilder.buildBasicResponse(ALLOC, REQUEST_ID, (short) 0, GENERATION));
+    }
+
+    @Test
+    void v2BasicNetwork() {
+        assertV2("v2-basic-network", V2ResponseBuilder.buildBasicResponse(ALLOC, REQUEST_ID, network(), GENERATION));
+    }
+
+    @Test
+    void v2AuthRequired() {
+        assertV2("v2-auth-required", V2ResponseBuilder.buildAuthRequiredResponse(ALLOC, REQUEST_ID, GENERATION));
+    }
+
+    /**
+     * 43 players fit a page: the first page and a middle one set HAS_MORE, the last holds the
+     * remaining 21, and an offset past the end returns an empty list.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {0, 43, 129, 200})
+    void v2Players(int offset) {
+        assertV2("v2-players-" + offset,
+                V2ResponseBuilder.buildPlayersResponse(ALLOC, REQUEST_ID, (short) 0, arena, offset, GENERATION));
+    }
+
+    @Test
+    void v2PlayersFirstPageHasMore() {
+        byte[] packet = bytes(V2ResponseBuilder.buildPlayersResponse(ALLOC, REQUEST_ID, (short) 0, arena, 0, GENERATION));
+        int flags = Unpooled.wrappedBuffer(packet).getShortLE(V2Protocol.OFFSET_RESPONSE_FLAGS);
+        assertEquals(V2Protocol.FLAG_RESPONSE_HAS_MORE_PLAYERS, flags & V2Protocol.FLAG_RESPONSE_HAS_MORE_PLAYERS);
+    }
+
+    @Test
+    void v2PlayersNetwork() {
+        assertV2("v2-players-network", V2ResponseBuilder.buildPlayersResponse(ALLOC, REQUEST_ID,
+                V2Protocol.FLAG_RESPONSE_IS_NETWORK, arena, 43, GENERATION));
+    }
+
+    @Test
+    void v1Basic() {
+        assertV1("v1-basic", V1ResponseBuilder.buildBasicResponse(ALLOC));
+    }
+
+    @Test
+    void v1Full() {
+        assertV1("v1-full", V1ResponseBuilder.buildFullResponse(ALLOC, arena));
+    }
+
+    @Test
+    void v1BasicNetwork() {
+        assertV1("v1-basic-network", V1ResponseBuilder.buildBasicResponse(ALLOC, network()));
+    }
+
+    @Test
+    void v1FullNetwork() {
+        assertV1("v1-full-network", V1ResponseBuilder.buildFullResponse(ALLOC, network()));
+    }
+
+    private static void assertV2(String fixture, ByteBuf response) {
+        assertArrayEquals(golden(fixture), withoutStateVersion(bytes(response)), fixture);
+    }
+
+    private static void assertV1(String fixture, ByteBuf response) {
+        assertArrayEquals(golden(fixture), bytes(response), fixture);
+    }
+
+    /**
+     * Check that the packet ends in the STATE_VERSION TLV for {@link #GENERATION} and return it
+     * without that TLV, as the original builders would have written it.
+     */
+    private static byte[] withoutStateVersion(byte[] packet) {
+        int tlv = packet.length - STATE_VERSION_TLV_SIZE;
+        ByteBuf trailer = Unpooled.wrappedBuffer(packet, tlv, STATE_VERSION_TLV_SIZE);
+        assertEquals(V2TLVWriter.TYPE_STATE_VERSION, trailer.readShortLE());
+        assertEquals(V2Protocol.VERSION_TAG_SIZE, trailer.readShortLE());
+        assertEquals(StateGeneration.versionTag(GENERATION), trailer.readLongLE());
+
+        ByteBuf stripped = Unpooled.wrappedBuffer(Arrays.copyOf(packet, tlv));
+        int payloadLength = stripped.getUnsignedShortLE(V2Protocol.OFFSET_RESPONSE_PAYLOAD_LENGTH);
+        stripped.setShortLE(V2Protocol.OFFSET_RESPONSE_PAYLOAD_LENGTH, payloadLength - STATE_VERSION_TLV_SIZE);
+        return stripped.array();
+    }
+
+    private static byte[] bytes(ByteBuf buf) {
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static byte[] golden(String fixture) {
+        try (InputStream in = ResponseGoldenBytesTest.class.getResourceAsStream("golden/" + fixture + ".hex")) {
+            assertNotNull(in, "missing fixture " + fixture);
+            String hex = new String(in.readAllBytes(), StandardCharsets.US_ASCII).replaceAll("\\s", "");
+            return HexFormat.of().parseHex(hex);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}